@@ -0,0 +1,75 @@
+package benchmarks;
+
+import image_char_matching.SubImgCharMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Constructing a character matcher, and looking characters up in it, in strict
+ * and quantized mode. Glyph brightness is cached across matchers, so construction
+ * is measured warm, as it is after the first image of a session.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class CharMatcherBenchmark {
+    private static final int LOOKUPS = 4096;
+    private static final int FIRST_CHAR = 32;
+
+    @Param({"10", "95"})
+    private int charsetSize;
+
+    @Param({"0", "256"})
+    private int quantizationLevels;
+
+    private char[] charset;
+    private SubImgCharMatcher matcher;
+    private final double[] brightness = new double[LOOKUPS];
+
+    @Setup
+    public void setUp() {
+        charset = new char[charsetSize];
+        for (int i = 0; i < charsetSize; i++) {
+            charset[i] = (char) (charsetSize == 10 ? '0' + i : FIRST_CHAR + i);
+        }
+        matcher = new SubImgCharMatcher(charset.clone());
+        matcher.setQuantizationLevels(quantizationLevels);
+        matcher.initializeBrightnessMap();
+        Random random = new Random(42);
+        for (int i = 0; i < LOOKUPS; i++) {
+            brightness[i] = random.nextDouble();
+        }
+    }
+
+    @Benchmark
+    public SubImgCharMatcher construct() {
+        SubImgCharMatcher constructed = new SubImgCharMatcher(charset.clone());
+        constructed.initializeBrightnessMap();
+        return constructed;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void getCharByImageBrightness(Blackhole blackhole) {
+        for (double value : brightness) {
+            blackhole.consume(matcher.getCharByImageBrightness(value));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package benchmarks;
+
+import image.Image;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading an image file into an Image, decoding included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ImageLoadBenchmark {
+    @Param({"256", "1024", "4096"})
+    private int size;
+
+    @Param({"png", "jpeg"})
+    private String format;
+
+    private String filename;
+
+    @Setup
+    public void setUp() throws IOException {
+        Path file = SyntheticImages.write(size, size, format, SyntheticImages.createTempDirectory());
+        file.toFile().deleteOnExit();
+        filename = file.toString();
+    }
+
+    @Benchmark
+    public Image load() throws IOException {
+        return new Image(filename);
+    }
+}
@@ -0,0 +1,65 @@
+package benchmarks;
+
+import image.Image;
+import image.ImageProcessor;
+import image.IntegralImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computing the brightness matrix of an image at every resolution the shell
+ * allows, directly and from a prebuilt integral image.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ImageProcessorBenchmark {
+    @Param({"1024", "3000"})
+    private int size;
+
+    @Param({"2", "4", "8", "16", "32", "64", "128", "256", "512", "1024"})
+    private int resolution;
+
+    private Image image;
+    private IntegralImage integralImage;
+
+    @Setup
+    public void setUp() {
+        image = SyntheticImages.create(size, size);
+        integralImage = new IntegralImage(image, ImageProcessor.SERIAL);
+    }
+
+    @Benchmark
+    public ImageProcessor serial() {
+        return new ImageProcessor(image, resolution, ImageProcessor.SERIAL);
+    }
+
+    @Benchmark
+    public ImageProcessor parallel() {
+        return new ImageProcessor(image, resolution, Runtime.getRuntime().availableProcessors());
+    }
+
+    @Benchmark
+    public ImageProcessor fromIntegralImage() {
+        return new ImageProcessor(integralImage, resolution);
+    }
+
+    @Benchmark
+    public IntegralImage buildIntegralImage() {
+        return new IntegralImage(image, ImageProcessor.SERIAL);
+    }
+}
@@ -0,0 +1,88 @@
+package benchmarks;
+
+import ascii_art.AsciiArtAlgorithm;
+import ascii_output.ConsoleAsciiOutput;
+import ascii_output.HtmlAsciiOutput;
+import image.Image;
+import image.ImageProcessor;
+import image_char_matching.SubImgCharMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The end of the pipeline: matching the brightness matrix to characters, and
+ * writing the result with both outputs. Console output goes to a stream that
+ * discards it, so only the formatting and writing are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PipelineBenchmark {
+    private static final char[] CHARSET = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9'};
+    private static final String FONT_NAME = "Courier New";
+
+    @Param({"512", "2048"})
+    private int size;
+
+    @Param({"64", "256"})
+    private int resolution;
+
+    private AsciiArtAlgorithm algorithm;
+    private char[][] asciiArt;
+    private ConsoleAsciiOutput consoleOutput;
+    private HtmlAsciiOutput htmlOutput;
+    private PrintStream originalOut;
+
+    @Setup
+    public void setUp() throws IOException {
+        Image image = SyntheticImages.create(size, size);
+        algorithm = new AsciiArtAlgorithm(new SubImgCharMatcher(CHARSET.clone()),
+                new ImageProcessor(image, resolution));
+        asciiArt = algorithm.run();
+        consoleOutput = new ConsoleAsciiOutput();
+        Path html = SyntheticImages.createTempDirectory().resolve("out.html");
+        html.toFile().deleteOnExit();
+        htmlOutput = new HtmlAsciiOutput(html.toString(), FONT_NAME);
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(originalOut);
+    }
+
+    @Benchmark
+    public char[][] run() {
+        return algorithm.run();
+    }
+
+    @Benchmark
+    public void consoleOutput() {
+        consoleOutput.out(asciiArt);
+    }
+
+    @Benchmark
+    public void htmlOutput() {
+        htmlOutput.out(asciiArt);
+    }
+}
@@ -0,0 +1,81 @@
+package benchmarks;
+
+import image.Image;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Deterministic images for the benchmarks, so every run measures the same pixels:
+ * smooth gradients, which compress like photographs, with some noise on top.
+ */
+final class SyntheticImages {
+    private static final long SEED = 42;
+    private static final int NOISE = 32;
+    private static final int MAX_RGB_VALUE = 255;
+
+    private SyntheticImages() {
+    }
+
+    /**
+     * Creates a synthetic image in memory.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @return The image.
+     */
+    static Image create(int width, int height) {
+        return new Image(createBufferedImage(width, height));
+    }
+
+    /**
+     * Writes a synthetic image to a new file in the given directory.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param format An ImageIO format name, such as png or jpeg.
+     * @param directory The directory of the file.
+     * @return The path of the file.
+     * @throws IOException If the file cannot be written.
+     */
+    static Path write(int width, int height, String format, Path directory) throws IOException {
+        Path file = directory.resolve(width + "x" + height + "." + format);
+        if (!ImageIO.write(createBufferedImage(width, height), format, file.toFile())) {
+            throw new IOException("No writer for " + format);
+        }
+        return file;
+    }
+
+    /**
+     * Creates a temporary directory for benchmark files, deleted with its files on exit.
+     */
+    static Path createTempDirectory() throws IOException {
+        Path directory = Files.createTempDirectory("ascii_art_bench");
+        directory.toFile().deleteOnExit();
+        return directory;
+    }
+
+    private static BufferedImage createBufferedImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(SEED);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = clamp(x * MAX_RGB_VALUE / width + random.nextInt(NOISE));
+                int green = clamp(y * MAX_RGB_VALUE / height + random.nextInt(NOISE));
+                int blue = clamp((x + y) * MAX_RGB_VALUE / (width + height) + random.nextInt(NOISE));
+                row[x] = red << 16 | green << 8 | blue;
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    private static int clamp(int value) {
+        return Math.min(value, MAX_RGB_VALUE);
+    }
+}
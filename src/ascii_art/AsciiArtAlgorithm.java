@@ -1,7 +1,9 @@
 package ascii_art;
 
-import image.Image;
+import ascii_output.AsciiRowOutput;
+import image.BrightnessRowStream;
 import image.ImageProcessor;
+import image_char_matching.CharMatcherSnapshot;
 import image_char_matching.SubImgCharMatcher;
 
 /**
@@ -9,11 +11,14 @@ import image_char_matching.SubImgCharMatcher;
  * the pixel brightness to characters.
  * The process involves adjusting the image resolution and using a character matcher for the conversion.
  * Users can customize the output detail level through the resolution parameter.
+ * In streaming mode, the brightness is read one row at a time and each row of ASCII art is output
+ * as soon as it is ready, so the whole image is never held as brightness or characters.
  */
 
 public class AsciiArtAlgorithm {
     private final SubImgCharMatcher charMatcher ;
     private final ImageProcessor imageProcessor;
+    private final BrightnessRowStream brightnessRows;
     /**
      * Constructs an AsciiArtAlgorithm object with the specified parameters.
      * @param charMatcher the character matcher used to map image brightness to ASCII characters
@@ -22,25 +27,89 @@ public class AsciiArtAlgorithm {
     public AsciiArtAlgorithm(SubImgCharMatcher charMatcher, ImageProcessor imageProcessor ) {
         this.charMatcher = charMatcher;
         this.imageProcessor=imageProcessor;
+        this.brightnessRows = null;
     };
 
+    /**
+     * Constructs an AsciiArtAlgorithm object in streaming mode.
+     * @param charMatcher the character matcher used to map image brightness to ASCII characters
+     * @param brightnessRows the rows of the brightness matrix of the current image
+     */
+    public AsciiArtAlgorithm(SubImgCharMatcher charMatcher, BrightnessRowStream brightnessRows) {
+        this.charMatcher = charMatcher;
+        this.imageProcessor = null;
+        this.brightnessRows = brightnessRows;
+    }
+
     /**
      * Runs the ASCII art algorithm on the provided image.
      * @return a 2D character array representing the ASCII art
      */
     public char[][] run(){
+        charMatcher.initializeBrightnessMap();
+        return convert(charMatcher.getSnapshot());
+    }
+
+    /**
+     * Converts the image with a snapshot of a character matcher, which may be shared between threads.
+     * @param snapshot the snapshot used to map image brightness to ASCII characters
+     * @return a 2D character array representing the ASCII art
+     */
+    public char[][] convert(CharMatcherSnapshot snapshot) {
+        if (brightnessRows != null) {
+            char[][] asciiArt = new char[brightnessRows.getNumOfRows()][];
+            for (int row = 0; brightnessRows.hasNextRow(); row++) {
+                asciiArt[row] = convertRow(snapshot, brightnessRows.nextRow());
+            }
+            return asciiArt;
+        }
         // Initialize result array
         double[][] brightnessMatrix = imageProcessor.getBrightness();
         char[][] asciiArt = new char[brightnessMatrix.length][brightnessMatrix[0].length];
 
         // Iterate over the brightness for each pixel and replace with appropriate ASCII characters
-        charMatcher.initializeBrightnessMap();
         for (int row = 0; row < brightnessMatrix.length; row++) {
             for (int col = 0; col < brightnessMatrix[row].length; col++) {
                 // Use brightness to get ASCII character
-                asciiArt[row][col] = charMatcher.getCharByImageBrightness(brightnessMatrix[row][col]);
+                asciiArt[row][col] = snapshot.getCharByImageBrightness(brightnessMatrix[row][col]);
             }
         }
         return asciiArt;
     }
-}
\ No newline at end of file
+
+    /**
+     * Runs the ASCII art algorithm, handing every row to the output as soon as it is ready.
+     * @param output the output receiving the rows of the ASCII art
+     */
+    public void run(AsciiRowOutput output) {
+        charMatcher.initializeBrightnessMap();
+        CharMatcherSnapshot snapshot = charMatcher.getSnapshot();
+        if (brightnessRows != null) {
+            output.begin(brightnessRows.getNumOfColumns());
+            while (brightnessRows.hasNextRow()) {
+                output.outRow(convertRow(snapshot, brightnessRows.nextRow()));
+            }
+        } else {
+            double[][] brightnessMatrix = imageProcessor.getBrightness();
+            output.begin(brightnessMatrix[0].length);
+            for (double[] brightnessRow : brightnessMatrix) {
+                output.outRow(convertRow(snapshot, brightnessRow));
+            }
+        }
+        output.end();
+    }
+
+    /**
+     * Replaces each brightness value of a row with the matching ASCII character.
+     * @param snapshot the snapshot used to map image brightness to ASCII characters
+     * @param brightnessRow the brightness of each sub-image in the row
+     * @return the ASCII characters of the row
+     */
+    private static char[] convertRow(CharMatcherSnapshot snapshot, double[] brightnessRow) {
+        char[] asciiRow = new char[brightnessRow.length];
+        for (int col = 0; col < brightnessRow.length; col++) {
+            asciiRow[col] = snapshot.getCharByImageBrightness(brightnessRow[col]);
+        }
+        return asciiRow;
+    }
+}
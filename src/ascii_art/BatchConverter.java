@@ -0,0 +1,486 @@
+package ascii_art;
+
+import ascii_output.ConsoleAsciiOutput;
+import ascii_output.HtmlAsciiOutput;
+import image.BrightnessRowStream;
+import image.BrightnessSource;
+import image.Image;
+import image.ImageHeader;
+import image.ImageProcessor;
+import image_char_matching.CharMatcherSnapshot;
+import image_char_matching.SubImgCharMatcher;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A non-interactive entry point that converts many images to ASCII art at once.
+ * Reading and writing files run on a pool of I/O threads, and decoding and
+ * converting images run on a pool of ImageProcessor.PARALLELISM threads, one per
+ * processor unless the ascii_art.parallelism property says otherwise, so several images
+ * are in progress at a time while at most a bounded number of them is held in memory.
+ * Each image is decoded the way Shell decodes it: whole, subsampled for a low
+ * resolution preview of a multi-megapixel image, or strip by strip when it is too
+ * large for the decode budget.
+ * <p>
+ * All the images in progress share one decode budget, the one of the
+ * ascii_art.decodeBudgetBytes property or half the maximal heap, rather than
+ * each having its own. Half of it is split evenly between the worker threads
+ * for the strips they decode. The other half is reserved by the images decoded
+ * whole, each for its file and its decoded pixels, from the time the file is
+ * read until the image is converted. An image that finds too little of it
+ * left is decoded strip by strip instead, so the batch never holds more
+ * than the budget of pixels, however many large images it converts.
+ * <p>
+ * All images share a single immutable snapshot of one character matcher, built
+ * before any of them is converted. Console output is printed in input order,
+ * each image under a header naming its file, whatever order the images complete
+ * in. The time each image spent in every stage, and the total throughput, are
+ * reported on the standard error stream, also in input order.
+ * <p>
+ * Usage: BatchConverter &lt;directory or glob&gt; &lt;charset|all&gt; &lt;resolution&gt;
+ * &lt;console|html&gt; [output directory]
+ * <p>
+ * The resolution must be a power of two. As with Shell's res command, an image
+ * whose padded width is smaller than the resolution, or whose padded width is
+ * more than resolution times its padded height, fails with its own error.
+ */
+public class BatchConverter {
+    private static final String USAGE = "Usage: BatchConverter <directory or glob> <charset|all> " +
+            "<resolution> <console|html> [output directory]\nThe resolution must be a power of two.";
+    private static final String ALL_CHARS = "all";
+    private static final String CONSOLE_FORMAT = "console";
+    private static final String HTML_FORMAT = "html";
+    private static final String HTML_SUFFIX = ".html";
+    private static final String FONT_NAME = "Courier New";
+    private static final String CONSOLE_HEADER = "==> %s <==%n";
+    private static final int MIN_ASCI_VAL = 32;
+    private static final int MAX_ASCI_VAL = 127;
+    private static final int CPU_THREADS = ImageProcessor.PARALLELISM;
+    private static final int IO_THREADS = 2 * CPU_THREADS;
+    // images read but not yet written, bounding the memory of the batch
+    private static final int MAX_IN_FLIGHT = 2 * CPU_THREADS;
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double PIXELS_PER_MEGAPIXEL = 1e6;
+    // the encoding buffer of each I/O thread, reused by all the html files it writes
+    private static final ThreadLocal<ByteBuffer> HTML_BUFFERS =
+            ThreadLocal.withInitial(HtmlAsciiOutput::allocateBuffer);
+    // the console output of each I/O thread, reusing its frame buffer for every image it encodes
+    private static final ThreadLocal<ConsoleAsciiOutput> CONSOLE_OUTPUTS =
+            ThreadLocal.withInitial(ConsoleAsciiOutput::new);
+
+    // the share of the decode budget each worker may decode strips with
+    private final long stripBudget;
+    // the rest of the decode budget, reserved by the images decoded whole
+    private final DecodeBudget decodeBudget;
+    private final SubImgCharMatcher charMatcher;
+    private final CharMatcherSnapshot snapshot;
+    private final int resolution;
+    private final String format;
+    private final Path outputDirectory;
+
+    /**
+     * Constructs a batch converter with the default decode budget, building
+     * the snapshot of its character matcher.
+     *
+     * @param charset The characters to draw the images with.
+     * @param resolution The number of characters in each row of ASCII art, a power of two.
+     * @param format The output format, console or html.
+     * @param outputDirectory The directory html files are written to.
+     */
+    public BatchConverter(char[] charset, int resolution, String format, Path outputDirectory) {
+        this(charset, resolution, format, outputDirectory, BrightnessSource.getDefaultBudget());
+    }
+
+    /**
+     * Constructs a batch converter whose images share the given decode budget,
+     * building the snapshot of its character matcher.
+     *
+     * @param charset The characters to draw the images with.
+     * @param resolution The number of characters in each row of ASCII art, a power of two.
+     * @param format The output format, console or html.
+     * @param outputDirectory The directory html files are written to.
+     * @param budget The maximal number of bytes all the decoded pixels may take together.
+     */
+    public BatchConverter(char[] charset, int resolution, String format, Path outputDirectory,
+                          long budget) {
+        if (!format.equals(CONSOLE_FORMAT) && !format.equals(HTML_FORMAT)) {
+            throw new IllegalArgumentException("Unknown output format: " + format);
+        }
+        if (!isPowerOfTwo(resolution)) {
+            throw new IllegalArgumentException("Resolution is not a power of two: " + resolution);
+        }
+        this.charMatcher = new SubImgCharMatcher(charset);
+        this.charMatcher.initializeBrightnessMap();
+        this.snapshot = charMatcher.getSnapshot();
+        this.resolution = resolution;
+        this.format = format;
+        this.outputDirectory = outputDirectory;
+        this.stripBudget = budget / 2 / CPU_THREADS;
+        this.decodeBudget = new DecodeBudget(budget - stripBudget * CPU_THREADS);
+    }
+
+    /**
+     * Converts all the given images, printing and reporting each of them in
+     * input order. An image is printed once it and all the images before it
+     * have completed; it is held in memory until then, within the in-flight bound.
+     *
+     * @param inputs The image files to convert.
+     * @return The number of images that failed to convert.
+     * @throws InterruptedException If interrupted while waiting for an image to complete.
+     */
+    public int convertAll(List<Path> inputs) throws InterruptedException {
+        ExecutorService ioPool = Executors.newFixedThreadPool(IO_THREADS);
+        ExecutorService cpuPool = Executors.newFixedThreadPool(CPU_THREADS);
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        List<CompletableFuture<Job>> jobs = new ArrayList<>();
+        // completes once every image submitted so far is printed, in input order
+        CompletableFuture<Void> printed = CompletableFuture.completedFuture(null);
+        long start = System.nanoTime();
+        try {
+            for (Path input : inputs) {
+                inFlight.acquire();
+                Job job = new Job(input);
+                CompletableFuture<Job> done = CompletableFuture.supplyAsync(job::read, ioPool)
+                        .thenApplyAsync(Job::convert, cpuPool)
+                        .thenApplyAsync(Job::write, ioPool)
+                        .handle((finished, failure) -> job.fail(failure));
+                jobs.add(done);
+                printed = printed.thenCombineAsync(done, (none, finished) -> {
+                    try {
+                        finished.print();
+                    } finally {
+                        inFlight.release();
+                    }
+                    return null;
+                }, ioPool);
+            }
+            printed.join();
+        } finally {
+            ioPool.shutdown();
+            cpuPool.shutdown();
+        }
+        return reportTotal(jobs, System.nanoTime() - start, decodeBudget.getPeak());
+    }
+
+    /**
+     * Returns the most bytes the images decoded whole have reserved at once,
+     * which never exceeds the decode budget.
+     * @return The peak reservation in bytes.
+     */
+    public long getPeakDecodeBytes() {
+        return decodeBudget.getPeak();
+    }
+
+    /**
+     * Reports the throughput of the whole batch.
+     *
+     * @return The number of images that failed to convert.
+     */
+    private static int reportTotal(List<CompletableFuture<Job>> jobs, long nanos, long peakDecodeBytes) {
+        int failed = 0;
+        long pixels = 0;
+        for (CompletableFuture<Job> job : jobs) {
+            Job done = job.join();
+            if (done.failed) {
+                failed++;
+            } else {
+                pixels += done.pixels;
+            }
+        }
+        double seconds = nanos / NANOS_PER_SECOND;
+        int converted = jobs.size() - failed;
+        System.err.printf("%d images converted, %d failed, in %.1f ms: %.2f images/s, %.2f Mpixel/s, " +
+                        "at most %d bytes decoded whole at once%n",
+                converted, failed, nanos / NANOS_PER_MILLI, converted / seconds,
+                pixels / PIXELS_PER_MEGAPIXEL / seconds, peakDecodeBytes);
+        return failed;
+    }
+
+    /**
+     * The conversion of a single image, passed from stage to stage.
+     * Every stage runs after the previous one has completed, so its fields need
+     * no synchronization.
+     */
+    private final class Job {
+        private final Path input;
+        private BrightnessSource source;
+        // the whole file, when it is decoded whole
+        private byte[] bytes;
+        // the bytes of the decode budget reserved to decode the image whole
+        private long reserved;
+        private char[][] asciiArt;
+        // the frame encoded for the console, printed in input order
+        private byte[] encoded;
+        private long pixels;
+        private boolean failed;
+        private Throwable failure;
+        private long readNanos;
+        private long convertNanos;
+        private long writeNanos;
+
+        private Job(Path input) {
+            this.input = input;
+        }
+
+        /**
+         * Reads the header of the image, checks the resolution against it, and
+         * reads the whole file if it is to be decoded whole: if all its pixels
+         * are decoded, and the file and its pixels fit in what is left of the
+         * decode budget, which stays reserved until the image is converted.
+         */
+        private Job read() {
+            long start = System.nanoTime();
+            try {
+                ImageHeader header = ImageHeader.read(input.toString());
+                checkResolution(header);
+                pixels = (long) header.getWidth() * header.getHeight();
+                source = new BrightnessSource(input.toString(), header, stripBudget);
+                if (source.getSubsampling(resolution) == 1) {
+                    long size = source.getDecodedBytes() + Files.size(input);
+                    if (decodeBudget.tryReserve(size)) {
+                        reserved = size;
+                        bytes = Files.readAllBytes(input);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            readNanos = System.nanoTime() - start;
+            return this;
+        }
+
+        private void checkResolution(ImageHeader header) {
+            int minResolution = Math.max(1, header.getPaddedWidth() / header.getPaddedHeight());
+            if (resolution > header.getPaddedWidth() || resolution < minResolution) {
+                throw new IllegalArgumentException(String.format(
+                        "resolution %d is out of bounds for a %dx%d image, which allows %d to %d",
+                        resolution, header.getWidth(), header.getHeight(), minResolution,
+                        header.getPaddedWidth()));
+            }
+        }
+
+        private Job convert() {
+            long start = System.nanoTime();
+            try {
+                if (bytes != null) {
+                    asciiArt = new AsciiArtAlgorithm(charMatcher, new ImageProcessor(decode(),
+                            resolution, ImageProcessor.SERIAL)).convert(snapshot);
+                } else {
+                    try (BrightnessRowStream rows = source.openRows(resolution)) {
+                        asciiArt = new AsciiArtAlgorithm(charMatcher, rows).convert(snapshot);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                release();
+            }
+            convertNanos = System.nanoTime() - start;
+            return this;
+        }
+
+        /**
+         * Decodes the whole file read by the read stage. The images themselves
+         * run in parallel, so each is converted serially.
+         */
+        private Image decode() throws IOException {
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(bytes));
+            bytes = null;
+            if (decoded == null) {
+                throw new IllegalArgumentException("unsupported image format");
+            }
+            return new Image(decoded);
+        }
+
+        /**
+         * Writes the html file, or encodes the frame for the console, to be
+         * printed by print in input order.
+         */
+        private Job write() {
+            long start = System.nanoTime();
+            if (format.equals(HTML_FORMAT)) {
+                Path file = outputDirectory.resolve(input.getFileName() + HTML_SUFFIX);
+                new HtmlAsciiOutput(file.toString(), FONT_NAME, HTML_BUFFERS.get()).out(asciiArt);
+            } else {
+                encoded = CONSOLE_OUTPUTS.get().encode(asciiArt);
+            }
+            asciiArt = null;
+            writeNanos = System.nanoTime() - start;
+            return this;
+        }
+
+        /**
+         * Records the failure of a stage, if one failed.
+         */
+        private Job fail(Throwable failure) {
+            if (failure != null) {
+                failed = true;
+                this.failure = failure.getCause() != null ? failure.getCause() : failure;
+                asciiArt = null;
+                bytes = null;
+                release();
+            }
+            return this;
+        }
+
+        /**
+         * Returns the bytes reserved to decode the image whole, once it no longer holds them.
+         */
+        private void release() {
+            decodeBudget.release(reserved);
+            reserved = 0;
+        }
+
+        /**
+         * Prints the console frame under its header, and reports the image.
+         */
+        private void print() {
+            if (encoded != null) {
+                System.out.printf(CONSOLE_HEADER, input);
+                CONSOLE_OUTPUTS.get().write(encoded);
+                encoded = null;
+            }
+            if (failed) {
+                System.err.printf("%s: failed: %s%n", input, failure);
+                return;
+            }
+            System.err.printf("%s: %d pixels, read %.1f ms, convert %.1f ms, write %.1f ms%n",
+                    input, pixels, readNanos / NANOS_PER_MILLI, convertNanos / NANOS_PER_MILLI,
+                    writeNanos / NANOS_PER_MILLI);
+        }
+    }
+
+    /**
+     * The part of the decode budget shared by the images decoded whole. An
+     * image reserves its bytes without waiting, so a worker never blocks on
+     * images that are themselves waiting for a worker.
+     */
+    private static final class DecodeBudget {
+        private final long budget;
+        private long reserved;
+        private long peak;
+
+        private DecodeBudget(long budget) {
+            this.budget = budget;
+        }
+
+        /**
+         * Reserves the given number of bytes, if that many are left.
+         * @return Whether they were reserved.
+         */
+        private synchronized boolean tryReserve(long bytes) {
+            if (bytes > budget - reserved) {
+                return false;
+            }
+            reserved += bytes;
+            peak = Math.max(peak, reserved);
+            return true;
+        }
+
+        private synchronized void release(long bytes) {
+            reserved -= bytes;
+        }
+
+        private synchronized long getPeak() {
+            return peak;
+        }
+    }
+
+    /**
+     * Lists the files of a directory, or the files matching a glob in the
+     * directory of its last name, such as images/*.jpeg, in name order.
+     *
+     * @param pattern A directory, or a glob whose directory part has no wildcards.
+     * @return The matching regular files.
+     * @throws IOException If the directory cannot be listed.
+     */
+    static List<Path> listInputs(String pattern) throws IOException {
+        Path path = Paths.get(pattern);
+        Path directory;
+        String glob;
+        if (Files.isDirectory(path)) {
+            directory = path;
+            glob = "*";
+        } else {
+            directory = path.getParent() != null ? path.getParent() : Paths.get(".");
+            glob = path.getFileName().toString();
+        }
+        List<Path> inputs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, glob)) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file)) {
+                    inputs.add(file);
+                }
+            }
+        }
+        inputs.sort(null);
+        return inputs;
+    }
+
+    private static boolean isPowerOfTwo(int n) {
+        return n > 0 && (n & (n - 1)) == 0;
+    }
+
+    /**
+     * Parses a charset argument: the characters themselves, or all for every
+     * printable ASCII character.
+     */
+    private static char[] parseCharset(String argument) {
+        if (!argument.equals(ALL_CHARS)) {
+            return argument.toCharArray();
+        }
+        char[] charset = new char[MAX_ASCI_VAL - MIN_ASCI_VAL];
+        for (int i = 0; i < charset.length; i++) {
+            charset[i] = (char) (MIN_ASCI_VAL + i);
+        }
+        return charset;
+    }
+
+    /**
+     * Converts a batch of images.
+     *
+     * @param args The input directory or glob, the charset, the resolution, the
+     *             output format and optionally the output directory.
+     * @throws IOException If the input directory cannot be listed.
+     * @throws InterruptedException If interrupted while converting.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 4 || args.length > 5) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        char[] charset = parseCharset(args[1]);
+        int resolution;
+        try {
+            resolution = Integer.parseInt(args[2]);
+        } catch (NumberFormatException e) {
+            resolution = 0;
+        }
+        if (charset.length == 0 || !isPowerOfTwo(resolution) ||
+                (!args[3].equals(CONSOLE_FORMAT) && !args[3].equals(HTML_FORMAT))) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        Path outputDirectory = Paths.get(args.length == 5 ? args[4] : ".");
+        Files.createDirectories(outputDirectory);
+        BatchConverter converter = new BatchConverter(charset, resolution, args[3], outputDirectory);
+        int failed = converter.convertAll(listInputs(args[0]));
+        System.exit(failed == 0 ? 0 : 1);
+    }
+}
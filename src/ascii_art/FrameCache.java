@@ -0,0 +1,264 @@
+package ascii_art;
+
+import ascii_output.AsciiOutput;
+import ascii_output.EncodedAsciiOutput;
+import image.BrightnessMatrixCache;
+import image_char_matching.SubImgCharMatcher;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, thread-safe cache of rendered ASCII art frames. A frame is
+ * identified by the version of its image file, the resolution, and the content
+ * of the charset with the matcher's quantization. Its chars are kept compactly,
+ * a single byte per cell when they all fit in one. For outputs that can encode
+ * their frames, the encoded bytes are kept as well, per format, so a repeated
+ * frame is written as is, without matching or serializing it again. The cache
+ * is bounded by the memory its frames take; when it is over budget, the least
+ * recently used frames are evicted. A frame larger than the whole budget is
+ * not kept.
+ */
+class FrameCache {
+    /**
+     * The system property setting the memory budget of the cache in bytes.
+     */
+    static final String BUDGET_PROPERTY = "ascii_art.frameCacheBytes";
+    /**
+     * The default memory budget, 64 MiB.
+     */
+    static final long DEFAULT_BUDGET = 64L << 20;
+    // the memory of a frame and its map entries, besides their arrays
+    private static final int ENTRY_OVERHEAD = 256;
+    private static final int BYTE_MASK = 0xFF;
+    // the most a cell takes, as a wide char
+    private static final int MAX_CELL_BYTES = Character.BYTES;
+
+    private final long budget;
+    private final LinkedHashMap<Key, Frame> frames = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    /**
+     * The identity of a frame.
+     */
+    static final class Key {
+        private final BrightnessMatrixCache.ImageId image;
+        private final int resolution;
+        private final String charset;
+        private final int quantizationLevels;
+
+        private Key(BrightnessMatrixCache.ImageId image, int resolution, String charset,
+                    int quantizationLevels) {
+            this.image = image;
+            this.resolution = resolution;
+            this.charset = charset;
+            this.quantizationLevels = quantizationLevels;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return image.equals(key.image) && resolution == key.resolution &&
+                    charset.equals(key.charset) && quantizationLevels == key.quantizationLevels;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((image.hashCode() * 31 + resolution) * 31 + charset.hashCode()) * 31 +
+                    quantizationLevels;
+        }
+    }
+
+    /**
+     * The chars of a frame, row by row, and their encodings.
+     */
+    private static final class Frame {
+        private final int numOfRows;
+        private final int numOfColumns;
+        // one of the two holds the cells
+        private final byte[] narrowCells;
+        private final char[] wideCells;
+        private final Map<String, byte[]> encodings = new HashMap<>();
+
+        private Frame(char[][] chars) {
+            numOfRows = chars.length;
+            numOfColumns = chars[0].length;
+            boolean narrow = true;
+            for (char[] row : chars) {
+                for (char c : row) {
+                    narrow &= c <= BYTE_MASK;
+                }
+            }
+            if (narrow) {
+                narrowCells = new byte[numOfRows * numOfColumns];
+                wideCells = null;
+                for (int row = 0; row < numOfRows; row++) {
+                    for (int col = 0; col < numOfColumns; col++) {
+                        narrowCells[row * numOfColumns + col] = (byte) chars[row][col];
+                    }
+                }
+            } else {
+                narrowCells = null;
+                wideCells = new char[numOfRows * numOfColumns];
+                for (int row = 0; row < numOfRows; row++) {
+                    System.arraycopy(chars[row], 0, wideCells, row * numOfColumns, numOfColumns);
+                }
+            }
+        }
+
+        private char[][] toChars() {
+            char[][] chars = new char[numOfRows][numOfColumns];
+            for (int row = 0; row < numOfRows; row++) {
+                for (int col = 0; col < numOfColumns; col++) {
+                    int cell = row * numOfColumns + col;
+                    chars[row][col] = narrowCells != null ?
+                            (char) (narrowCells[cell] & BYTE_MASK) : wideCells[cell];
+                }
+            }
+            return chars;
+        }
+
+        private long size() {
+            long size = ENTRY_OVERHEAD + (narrowCells != null ? narrowCells.length : 2L * wideCells.length);
+            for (byte[] encoded : encodings.values()) {
+                size += ENTRY_OVERHEAD + encoded.length;
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Constructs an empty cache.
+     *
+     * @param budget The maximal number of bytes the cached frames may take.
+     */
+    FrameCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Constructs an empty cache, with the budget of the BUDGET_PROPERTY system
+     * property, or DEFAULT_BUDGET if it is not set.
+     */
+    FrameCache() {
+        this(Long.getLong(BUDGET_PROPERTY, DEFAULT_BUDGET));
+    }
+
+    /**
+     * Builds the identity of the frame of an image at a resolution, drawn by a matcher.
+     *
+     * @param image The identity of the image file.
+     * @param resolution The resolution of the frame.
+     * @param charMatcher The matcher drawing the frame.
+     * @return The identity of the frame.
+     */
+    static Key key(BrightnessMatrixCache.ImageId image, int resolution, SubImgCharMatcher charMatcher) {
+        char[] charset = charMatcher.getCharset().clone();
+        Arrays.sort(charset);
+        return new Key(image, resolution, new String(charset), charMatcher.getQuantizationLevels());
+    }
+
+    /**
+     * Checks whether a frame of the given size may be kept: whether its cells
+     * fit in the budget, even if they are all wide.
+     *
+     * @param numOfRows The number of rows of the frame.
+     * @param numOfColumns The number of chars in each row.
+     * @return true if a frame of this size would be cached.
+     */
+    boolean keeps(int numOfRows, int numOfColumns) {
+        return ENTRY_OVERHEAD + (long) MAX_CELL_BYTES * numOfRows * numOfColumns <= budget;
+    }
+
+    /**
+     * Outputs a cached frame, as its cached encoding if the output has one, or
+     * by encoding or outputting its chars otherwise.
+     *
+     * @param key The identity of the frame.
+     * @param output The output to write the frame to.
+     * @return Whether the frame was cached, and so written.
+     */
+    boolean writeCached(Key key, AsciiOutput output) {
+        String format = output instanceof EncodedAsciiOutput ?
+                ((EncodedAsciiOutput) output).getFormat() : null;
+        Frame frame;
+        byte[] encoded = null;
+        synchronized (this) {
+            frame = frames.get(key);
+            if (frame == null) {
+                return false;
+            }
+            if (format != null) {
+                encoded = frame.encodings.get(format);
+            }
+        }
+        if (encoded != null) {
+            ((EncodedAsciiOutput) output).write(encoded);
+        } else {
+            write(key, frame, frame.toChars(), output);
+        }
+        return true;
+    }
+
+    /**
+     * Caches a new frame and outputs it, encoding it once if the output can.
+     * A frame larger than the whole budget is only output.
+     *
+     * @param key The identity of the frame.
+     * @param chars The chars of the frame.
+     * @param output The output to write the frame to.
+     */
+    void putAndWrite(Key key, char[][] chars, AsciiOutput output) {
+        Frame frame = new Frame(chars);
+        if (frame.size() <= budget) {
+            synchronized (this) {
+                Frame previous = frames.put(key, frame);
+                if (previous != null) {
+                    bytes -= previous.size();
+                }
+                bytes += frame.size();
+                trim();
+            }
+        }
+        write(key, frame, chars, output);
+    }
+
+    /**
+     * Outputs the chars of a cached frame, keeping their encoding for next time.
+     */
+    private void write(Key key, Frame frame, char[][] chars, AsciiOutput output) {
+        if (!(output instanceof EncodedAsciiOutput)) {
+            output.out(chars);
+            return;
+        }
+        EncodedAsciiOutput encodedOutput = (EncodedAsciiOutput) output;
+        byte[] encoded = encodedOutput.encode(chars);
+        synchronized (this) {
+            // the frame may have been evicted or replaced while encoding
+            if (frames.get(key) == frame) {
+                bytes -= frame.size();
+                frame.encodings.put(encodedOutput.getFormat(), encoded);
+                bytes += frame.size();
+                trim();
+            }
+        }
+        encodedOutput.write(encoded);
+    }
+
+    /**
+     * Evicts the least recently used frames while over budget.
+     */
+    private void trim() {
+        Iterator<Frame> eldest = frames.values().iterator();
+        while (bytes > budget && eldest.hasNext()) {
+            bytes -= eldest.next().size();
+            eldest.remove();
+        }
+    }
+}
@@ -1,18 +1,40 @@
 package ascii_art;
 
 import ascii_output.AsciiOutput;
+import ascii_output.AsciiRowOutput;
 import ascii_output.ConsoleAsciiOutput;
 import ascii_output.HtmlAsciiOutput;
+import image.BrightnessMatrixCache;
+import image.BrightnessRowStream;
+import image.BrightnessSource;
 import image.Image;
 import image.ImageProcessor;
+import image.ImageHeader;
+import image.IntegralImage;
 import image_char_matching.SubImgCharMatcher;
 
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.util.Arrays;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 
 /**
  * The Shell class represents a command-line interface for creating ASCII art from images.
  * It provides various commands to manipulate the image, character set, output method, and resolution.
+ * Images are loaded lazily: choosing an image only reads its header, for its
+ * dimensions, and its pixels are decoded when a conversion first needs them.
+ * An image that then fails to decode is dropped for the previous one.
+ * Likewise, charset changes are applied to the matcher only when a conversion
+ * runs, as a single change, however many commands made them.
+ * Given a script, the shell runs its commands without prompting, and writes an
+ * html conversion only if a later conversion does not overwrite its file; it
+ * computes such a conversion only then, too.
  */
 public class Shell {
     // Constants for command keywords
@@ -25,6 +47,7 @@ public class Shell {
     private static final String IMG_COMMAND = "image";
     private static final String OUTPUT_COMMAND = "output";
     private static final String RUN_ALG_COMMAND = "asciiArt";
+    private static final String STDIN_SCRIPT = "-";
     private static final int MIN_ASCI_VAL = 32;
     private static final int MAX_ASCI_VAL = 127;
     private static final String PRINT_INCORRECT_COMMAND= "Did not execute due to incorrect command.";
@@ -42,26 +65,46 @@ public class Shell {
     private static final char[] DEF_CHARSET = {'0', '1', '2', '3', '4', '5', '6' ,'7', '8', '9'};
     private static final int DEF_IMAGE_RES = 128;
     private static final AsciiOutput DEF_ASCII_OUTPUT = new ConsoleAsciiOutput();
+    // brightness matrices of the images and resolutions seen, shared by all shells
+    private static final BrightnessMatrixCache BRIGHTNESS_CACHE = new BrightnessMatrixCache();
+    // rendered frames of the images, resolutions and charsets seen, shared by all shells
+    private static final FrameCache FRAME_CACHE = new FrameCache();
     // class fields
+    private BrightnessSource imageSource;
+    // the decoded pixels of imageSource, or null until a conversion needs them
     private Image image;
+    private BrightnessMatrixCache.ImageId imageId;
+    private IntegralImage integralImage;
+    // whether imageSource is known to decode, by a conversion or a decode that succeeded
+    private boolean imageConverted;
+    // the image to go back to if the current one does not decode: the last one
+    // known to decode, or else the first one chosen
+    private BrightnessSource previousImageSource;
+    private Image previousImage;
+    private BrightnessMatrixCache.ImageId previousImageId;
+    private IntegralImage previousIntegralImage;
     private AsciiOutput asciiOutput;
     private int imageResolution;
-    private char[] charset;
+    // the charset set by the commands, applied to charMatcher when a conversion runs
+    private final BitSet charset = new BitSet();
     private final SubImgCharMatcher charMatcher;
     private ImageProcessor imageProcessor;
     private boolean callImProcessor =false;
+    // a script's html conversion that a later one is to overwrite, until that one succeeds
+    private PendingConversion pendingConversion;
 
     /**
      * Constructs a Shell instance with default settings.
-     * @throws IOException if there is an error loading the image.
+     * @throws IOException if there is an error reading the image's header.
      */
     public Shell() throws IOException {
-        this.charset = DEF_CHARSET;
-        this.charMatcher = new SubImgCharMatcher(charset);
-        this.image = new Image(DEF_IMAGE);
+        for (char character : DEF_CHARSET) {
+            charset.set(character);
+        }
+        this.charMatcher = new SubImgCharMatcher(DEF_CHARSET);
+        openImage(DEF_IMAGE);
         asciiOutput = DEF_ASCII_OUTPUT;
         imageResolution = DEF_IMAGE_RES;
-        imageProcessor= new ImageProcessor(image,imageResolution);
     }
 
     /**
@@ -76,48 +119,139 @@ public class Shell {
             if(input.equals(EXIT_COMMAND)){
                 break;
             }
+            execute(commands, false);
+        }
+    }
+
+    /**
+     * Runs the commands of a script, one per line, up to an 'exit' line or the
+     * end of the script. The whole script is read before any command runs, and
+     * no prompt is printed. The messages and files are the ones the commands
+     * would produce when typed, but an html conversion whose file a later
+     * conversion is to overwrite is held back, and only computed and written
+     * if that conversion fails. Until then, only its image is decoded, if it is
+     * not known to decode yet, so it fails, or restores the previous image,
+     * just as it would if it ran.
+     *
+     * @param script The lines of the script.
+     */
+    public void runScript(List<String> script) {
+        List<String[]> commandList = new ArrayList<>();
+        for (String line : script) {
+            String input = line.trim();
+            if (input.equals(EXIT_COMMAND)) {
+                break;
+            }
+            commandList.add(input.split(" "));
+        }
+        BitSet overwritten = findOverwrittenConversions(commandList);
+        for (int i = 0; i < commandList.size(); i++) {
+            execute(commandList.get(i), overwritten.get(i));
+        }
+        writePendingFrame();
+    }
+
+    /**
+     * Finds the conversions of a script that write an html file which a later
+     * conversion of the script writes again. Only the output and charset
+     * commands decide whether a conversion writes a file, so they are replayed
+     * on a copy of the state, without running anything.
+     *
+     * @param commandList The commands of the script.
+     * @return The indices of the conversions whose output is overwritten.
+     */
+    private BitSet findOverwrittenConversions(List<String[]> commandList) {
+        BitSet overwritten = new BitSet();
+        BitSet chars = (BitSet) charset.clone();
+        boolean html = asciiOutput instanceof HtmlAsciiOutput;
+        int lastHtmlConversion = -1;
+        for (int i = 0; i < commandList.size(); i++) {
+            String[] commands = commandList.get(i);
             switch (commands[0]) {
-                case VIEW_CHARS:
-                    viewChars();
-                    break;
                 case ADD_COMMAND:
-                    handleAddCommand(commands);
+                    if (commands.length == 2) {
+                        editCharset(chars, commands[1], true);
+                    }
                     break;
                 case REMOVE_COMMAND:
-                    handleRemoveCommand(commands);
-                    break;
-                case RES_COMMAND:
-                    callImProcessor = true;
-                    handleResolution(commands);
-                    break;
-                case IMG_COMMAND:
-                    callImProcessor = true;
-                    handleNewImage(commands);
+                    if (commands.length == 2) {
+                        editCharset(chars, commands[1], false);
+                    }
                     break;
                 case OUTPUT_COMMAND:
-                    changeOutput(commands);
+                    AsciiOutput output = parseOutput(commands);
+                    if (output != null) {
+                        html = output instanceof HtmlAsciiOutput;
+                    }
                     break;
                 case RUN_ALG_COMMAND:
-                    if(callImProcessor){
-                        imageProcessor= new ImageProcessor(image,imageResolution);
-                        callImProcessor = false;
+                    if (html && !chars.isEmpty()) {
+                        if (lastHtmlConversion >= 0) {
+                            overwritten.set(lastHtmlConversion);
+                        }
+                        lastHtmlConversion = i;
                     }
-                    runAlgorithm();
                     break;
                 default:
-                    System.out.println(PRINT_INCORRECT_COMMAND);
                     break;
             }
         }
+        return overwritten;
+    }
+
+    /**
+     * Executes a single command.
+     *
+     * @param commands The command and its arguments.
+     * @param overwritten Whether the output of a conversion command is to be
+     *                    overwritten later, so it need not be written yet.
+     */
+    private void execute(String[] commands, boolean overwritten) {
+        switch (commands[0]) {
+            case VIEW_CHARS:
+                viewChars();
+                break;
+            case ADD_COMMAND:
+                handleAddCommand(commands);
+                break;
+            case REMOVE_COMMAND:
+                handleRemoveCommand(commands);
+                break;
+            case RES_COMMAND:
+                callImProcessor = true;
+                handleResolution(commands);
+                break;
+            case IMG_COMMAND:
+                callImProcessor = true;
+                handleNewImage(commands);
+                break;
+            case OUTPUT_COMMAND:
+                changeOutput(commands);
+                break;
+            case RUN_ALG_COMMAND:
+                if (overwritten) {
+                    deferAlgorithm();
+                } else if (runAlgorithm(asciiOutput)) {
+                    if (asciiOutput instanceof HtmlAsciiOutput) {
+                        // the file of the pending conversion was overwritten
+                        pendingConversion = null;
+                    }
+                } else {
+                    writePendingFrame();
+                }
+                break;
+            default:
+                System.out.println(PRINT_INCORRECT_COMMAND);
+                break;
+        }
     }
 
     /**
      * Displays the characters in the current character set.
      */
     private void viewChars() {
-        Arrays.sort(charset); // Sort the character array
-        for (char character : charset) {
-            System.out.print(character + " ");
+        for (int c = charset.nextSetBit(0); c >= 0; c = charset.nextSetBit(c + 1)) {
+            System.out.print((char) c + " ");
         }
         System.out.println();
     }
@@ -127,38 +261,7 @@ public class Shell {
      * @param commands The command and character(s) to add.
      */
     private void handleAddCommand(String[] commands) {
-        if (commands.length == 2){
-            if (commands[1].length() == 1) {
-                charMatcher.addChar(commands[1].charAt(0));
-                charset = charMatcher.getCharset();
-            } else if (commands[1].equals("all")) {
-                for (int i = MIN_ASCI_VAL; i < MAX_ASCI_VAL; i++) {
-                    charMatcher.addChar((char)i);
-                    charset = charMatcher.getCharset();
-                }
-            } else if (commands[1].equals("space")){
-                charMatcher.addChar(' ');
-                charset = charMatcher.getCharset();
-            } else if (commands[1].length() == 3 && Character.isLetter(commands[1].charAt(0)) &&
-                    Character.isLetter(commands[1].charAt(2)) && commands[1].charAt(1) == '-'){
-                char startChar = commands[1].charAt(0); // Character range case, e.g., "a-d"
-                char endChar = commands[1].charAt(2);
-                if (startChar <= endChar) {
-                    for (char c = startChar; c <= endChar; c++) { // Add characters in the specified range
-                        charMatcher.addChar(c);
-                        charset = charMatcher.getCharset();
-                    }
-                } else {
-                    for (char c = endChar; c <= startChar; c++) { // Handle reverse range, e.g., "d-a"
-                        charMatcher.addChar(c);
-                        charset = charMatcher.getCharset();
-                    }
-                }
-            } else{
-                System.out.println(PRINT_INCORRECT_ADD_FORMAT);
-            }
-        }
-        else{
+        if (commands.length != 2 || !editCharset(charset, commands[1], true)) {
             System.out.println(PRINT_INCORRECT_ADD_FORMAT);
         }
     }
@@ -168,51 +271,94 @@ public class Shell {
      * @param commands The command and character(s) to remove
      */
     private void handleRemoveCommand(String[] commands) {
-        if (commands.length == 2) {
-            if (commands[1].length() == 1) {
-                charMatcher.removeChar(commands[1].charAt(0));
-                charset = charMatcher.getCharset();
-            } else if (commands[1].equals("all")) {
-                for (int i = MIN_ASCI_VAL; i < MAX_ASCI_VAL; i++) {
-                    charMatcher.removeChar((char) i);
-                    charset = charMatcher.getCharset();
-                }
-            } else if (commands[1].equals("space")) {
-                charMatcher.removeChar(' ');
-                charset = charMatcher.getCharset();
-            } else if (commands[1].length() == 3 && Character.isLetter(commands[1].charAt(0)) &&
-                    Character.isLetter(commands[1].charAt(2)) && commands[1].charAt(1) == '-') {
-                char startChar = commands[1].charAt(0);
-                char endChar = commands[1].charAt(2);
-                if (startChar <= endChar) {
-                    for (char c = startChar; c <= endChar; c++) {
-                        charMatcher.removeChar(c);
-                        charset = charMatcher.getCharset();
-                    }
-                } else {
-                    for (char c = endChar; c <= startChar; c++) {
-                        charMatcher.removeChar(c);
-                        charset = charMatcher.getCharset();
-                    }
-                }
-            } else{
-                System.out.println(PRINT_INCORRECT_REMOVE_FORMAT);
-            }
-        }
-        else{
+        if (commands.length != 2 || !editCharset(charset, commands[1], false)) {
             System.out.println(PRINT_INCORRECT_REMOVE_FORMAT);
         }
     }
 
     /**
-     * Handles the 'res' command to adjust image resolution.
+     * Adds characters to a charset or removes them from it: a single character,
+     * 'all' printable ASCII characters, 'space', or a range of letters such as
+     * "a-d". A reverse range, e.g., "d-a", edits the same characters.
+     *
+     * @param chars The charset to edit.
+     * @param argument The characters to add or remove.
+     * @param add Whether to add the characters rather than remove them.
+     * @return Whether the argument is in a correct format, and so was applied.
+     */
+    private static boolean editCharset(BitSet chars, String argument, boolean add) {
+        int first;
+        int last;
+        if (argument.length() == 1) {
+            first = last = argument.charAt(0);
+        } else if (argument.equals("all")) {
+            first = MIN_ASCI_VAL;
+            last = MAX_ASCI_VAL - 1;
+        } else if (argument.equals("space")) {
+            first = last = ' ';
+        } else if (argument.length() == 3 && Character.isLetter(argument.charAt(0)) &&
+                Character.isLetter(argument.charAt(2)) && argument.charAt(1) == '-') {
+            first = Math.min(argument.charAt(0), argument.charAt(2));
+            last = Math.max(argument.charAt(0), argument.charAt(2));
+        } else {
+            return false;
+        }
+        chars.set(first, last + 1, add);
+        return true;
+    }
+
+    /**
+     * Applies the charset set by the commands to the matcher, removing and
+     * adding the characters that changed since the last conversion in one batch each.
+     */
+    private void applyCharset() {
+        BitSet removed = new BitSet();
+        for (char character : charMatcher.getCharset()) {
+            removed.set(character);
+        }
+        BitSet added = (BitSet) charset.clone();
+        added.andNot(removed);
+        removed.andNot(charset);
+        if (!removed.isEmpty()) {
+            charMatcher.removeChars(toChars(removed));
+        }
+        if (!added.isEmpty()) {
+            charMatcher.addChars(toChars(added));
+        }
+    }
+
+    /**
+     * Lists the characters of a set, in ascending order.
+     *
+     * @param chars The set of characters.
+     * @return The characters of the set.
+     */
+    private static char[] toChars(BitSet chars) {
+        char[] array = new char[chars.cardinality()];
+        int i = 0;
+        for (int c = chars.nextSetBit(0); c >= 0; c = chars.nextSetBit(c + 1)) {
+            array[i++] = (char) c;
+        }
+        return array;
+    }
+
+    /**
+     * Handles the 'res' command to adjust image resolution. At a resolution of
+     * BrightnessSource.DEFAULT_PREVIEW_RESOLUTION or less (set by the
+     * ascii_art.previewResolution property), an image of at least
+     * BrightnessSource.PREVIEW_MIN_PIXELS pixels is drawn from a subsampled
+     * decode, so its brightness is an approximation; smaller images, and every
+     * image at higher resolutions, are drawn exactly.
      * @param commands The command and resolution adjustment.
      */
     private void handleResolution(String[] commands) {
-        int minCharsInRow = Math.max(1, imageProcessor.getNewWidth() / imageProcessor.getNewHeight());
+        // the bounds come from the padded dimensions of the image, known from its header
+        int newWidth = imageSource.getHeader().getPaddedWidth();
+        int newHeight = imageSource.getHeader().getPaddedHeight();
+        int minCharsInRow = Math.max(1, newWidth / newHeight);
         if (commands.length == 2){
             if (commands[1].equals("up")) {
-                if (imageResolution * 2 <= imageProcessor.getNewWidth()) {
+                if (imageResolution * 2 <= newWidth) {
                     imageResolution *= 2;
                     System.out.println("Resolution set to " + imageResolution + ".");
                 } else {
@@ -237,59 +383,384 @@ public class Shell {
     }
 
     /**
-     * Handles the 'image' command to load a new image.
+     * Handles the 'image' command to choose a new image. Only its header is read.
      *
      * @param commandWord The command and image filename.
      */
     private void handleNewImage(String[] commandWord) {
         try {
-            image = new Image(commandWord[1]);
+            openImage(commandWord[1]);
         } catch (IOException e) {
             System.out.println(PRINT_INCORRECT_IMAGE);
         }
     }
 
+    /**
+     * Makes an image file the current image, reading its dimensions from its
+     * header. Its pixels are decoded later, by loadImage. Until a conversion of
+     * it succeeds, the image chosen before it is kept, to be restored by
+     * restorePreviousImage, unless that one was not converted either and an
+     * earlier image is already kept.
+     *
+     * @param filename The image file.
+     * @throws IOException If the header cannot be read, leaving the current image as is.
+     */
+    private void openImage(String filename) throws IOException {
+        BrightnessMatrixCache.ImageId id = identifyImage(filename);
+        BrightnessSource source = new BrightnessSource(filename, ImageHeader.read(filename));
+        if (imageSource != null && (imageConverted || previousImageSource == null)) {
+            previousImageSource = imageSource;
+            previousImage = image;
+            previousImageId = imageId;
+            previousIntegralImage = integralImage;
+        }
+        imageSource = source;
+        imageId = id;
+        image = null;
+        integralImage = null;
+        imageConverted = false;
+    }
+
+    /**
+     * Makes the kept previous image the current image again, after the current
+     * one, never converted yet, failed to decode. This keeps the previous image,
+     * as if the current one had been rejected when it was chosen.
+     */
+    private void restorePreviousImage() {
+        if (!imageConverted && previousImageSource != null) {
+            imageSource = previousImageSource;
+            image = previousImage;
+            imageId = previousImageId;
+            integralImage = previousIntegralImage;
+            callImProcessor = true;
+        }
+    }
+
+    /**
+     * Decodes the pixels of the current image if they are not decoded yet.
+     *
+     * @throws IOException If the image file cannot be decoded.
+     */
+    private void loadImage() throws IOException {
+        if (image == null) {
+            image = imageSource.decode();
+            // the file may have changed since its header was read
+            imageId = identifyImage(imageSource.getFilename());
+        }
+    }
+
+    /**
+     * Identifies the current version of an image file for the brightness cache,
+     * read before the image itself so a later change to the file is never mistaken
+     * for this version.
+     *
+     * @return The identity of the file, or null if it cannot be identified.
+     */
+    private static BrightnessMatrixCache.ImageId identifyImage(String filename) {
+        try {
+            return BrightnessMatrixCache.ImageId.of(filename);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the brightness matrix of the current image at the current resolution,
+     * from the cache if this version of the image was already seen at it.
+     * Otherwise, it is computed from the decoded image, or from its summed-area
+     * table, built once per image, if enabled; for a low resolution preview of a
+     * multi-megapixel image, or an image too large to decode whole, it is computed
+     * from its subsampled strips.
+     *
+     * @return The image processor holding the brightness matrix.
+     * @throws IOException If the image file cannot be decoded.
+     */
+    private ImageProcessor getImageProcessor() throws IOException {
+        ImageProcessor cached = imageId == null ? null : BRIGHTNESS_CACHE.get(imageId, imageResolution);
+        if (cached != null) {
+            return cached;
+        }
+        ImageProcessor processor;
+        boolean preview = imageSource.getSubsampling(imageResolution) > 1;
+        if (!preview && imageSource.usesIntegralImage()) {
+            if (integralImage == null) {
+                loadImage();
+                integralImage = new IntegralImage(image, ImageProcessor.PARALLELISM);
+            }
+            processor = new ImageProcessor(integralImage, imageResolution);
+        } else if (!preview && imageSource.isDecodedWhole()) {
+            loadImage();
+            processor = new ImageProcessor(image, imageResolution, ImageProcessor.PARALLELISM);
+        } else {
+            // a preview, or too large to decode whole: decoded again, strip by strip
+            try (BrightnessRowStream rows = imageSource.openRows(imageResolution)) {
+                processor = new ImageProcessor(rows);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        if (imageId != null) {
+            BRIGHTNESS_CACHE.put(imageId, imageResolution, processor);
+        }
+        return processor;
+    }
+
     /**
      * Handles the 'output' command to change the output method.
      *
      * @param command The command and desired output method.
      */
     private void changeOutput(String[] command) {
+        AsciiOutput output = parseOutput(command);
+        if (output != null) {
+            asciiOutput = output;
+        } else {
+            System.out.println(PRINT_INCORRECT_OUTPUT);
+        }
+    }
+
+    /**
+     * Creates the output method named by an 'output' command.
+     *
+     * @param command The command and desired output method.
+     * @return The output method, or null if the command is in an incorrect format.
+     */
+    private static AsciiOutput parseOutput(String[] command) {
         if (command.length == 2) {
             if (command[1].equals("console")) {
-                asciiOutput = new ConsoleAsciiOutput();
+                return new ConsoleAsciiOutput();
             } else if (command[1].equals("html")) {
-                asciiOutput = new HtmlAsciiOutput("out.html", "Courier New");
-            } else{ // neither console nor html
-                System.out.println(PRINT_INCORRECT_OUTPUT);
+                return new HtmlAsciiOutput("out.html", "Courier New");
             }
-        } else{ // didn't write a second string
-            System.out.println(PRINT_INCORRECT_OUTPUT);
         }
+        return null; // neither console nor html, or didn't write a second string
+    }
+
+    /**
+     * Holds back a script's html conversion whose file a later conversion is to
+     * overwrite, replacing the pending conversion of the previous such one if it
+     * would succeed. Its messages are printed as usual. If its image is known to
+     * decode, nothing is computed: the conversion is only recorded, to be run by
+     * writePendingFrame if needed. Otherwise its image is decoded, which is all
+     * it could fail on; an image too large to decode whole is converted right
+     * away instead, strip by strip, and its frame kept.
+     */
+    private void deferAlgorithm() {
+        if (charset.isEmpty()) {
+            System.out.println(PRINT_INCORRECT_CHARSET);
+            return;
+        }
+        if (!imageConverted) {
+            if (imageSource.getSubsampling(imageResolution) > 1 || !imageSource.isDecodedWhole()) {
+                char[][][] frame = new char[1][][];
+                if (runAlgorithm(chars -> frame[0] = chars)) {
+                    pendingConversion = new PendingConversion(this, frame[0]);
+                }
+                return;
+            }
+            try {
+                loadImage();
+            } catch (IOException e) {
+                restorePreviousImage();
+                System.out.println(PRINT_INCORRECT_IMAGE);
+                return;
+            }
+            imageConverted = true;
+        }
+        pendingConversion = new PendingConversion(this, null);
     }
 
     /**
-     * Runs the ASCII art generation algorithm and outputs the result.
+     * Writes the pending html conversion of a script, if there is one, since the
+     * conversion that was to overwrite its file did not. A recorded conversion
+     * is run now, with the image, resolution and charset it was given, and the
+     * state of the shell is then put back as it was.
      */
-    private void runAlgorithm() {
-        if (charset.length != 0) {
-            AsciiArtAlgorithm asciiArtAlgorithm = new AsciiArtAlgorithm(charMatcher,
-                    imageProcessor);
-            char[][] asciiArt = asciiArtAlgorithm.run();
-            asciiOutput.out(asciiArt);
-        }
-        else System.out.println(PRINT_INCORRECT_CHARSET);
+    private void writePendingFrame() {
+        PendingConversion pending = pendingConversion;
+        if (pending == null) {
+            return;
+        }
+        pendingConversion = null;
+        if (pending.frame != null) {
+            pending.output.out(pending.frame);
+            return;
+        }
+        PendingConversion current = new PendingConversion(this, null);
+        ImageProcessor currentProcessor = imageProcessor;
+        boolean currentCallImProcessor = callImProcessor;
+        pending.applyTo(this);
+        callImProcessor = true;
+        try {
+            convert(pending.output);
+        } catch (IOException e) {
+            // the file changed since it decoded, and the conversion fails after all
+            System.out.println(PRINT_INCORRECT_IMAGE);
+        } finally {
+            current.applyTo(this);
+            imageProcessor = currentProcessor;
+            callImProcessor = currentCallImProcessor;
+        }
+    }
+
+    /**
+     * The image, resolution, charset and output a script's html conversion was
+     * given, recorded to run it later, or the frame it already drew.
+     */
+    private static final class PendingConversion {
+        private final BrightnessSource imageSource;
+        private final Image image;
+        private final BrightnessMatrixCache.ImageId imageId;
+        private final IntegralImage integralImage;
+        private final int imageResolution;
+        private final BitSet charset;
+        private final AsciiOutput output;
+        private final char[][] frame;
+
+        private PendingConversion(Shell shell, char[][] frame) {
+            this.imageSource = shell.imageSource;
+            this.image = shell.image;
+            this.imageId = shell.imageId;
+            this.integralImage = shell.integralImage;
+            this.imageResolution = shell.imageResolution;
+            this.charset = (BitSet) shell.charset.clone();
+            this.output = shell.asciiOutput;
+            this.frame = frame;
+        }
+
+        /**
+         * Sets the image, resolution and charset of the shell to the recorded ones.
+         */
+        private void applyTo(Shell shell) {
+            shell.imageSource = imageSource;
+            shell.image = image;
+            shell.imageId = imageId;
+            shell.integralImage = integralImage;
+            shell.imageResolution = imageResolution;
+            shell.charset.clear();
+            shell.charset.or(charset);
+        }
+    }
+
+    /**
+     * Runs the ASCII art generation algorithm and outputs the result. If the
+     * current image fails to decode, the previous image is restored.
+     *
+     * @param output The output to write the frame to.
+     * @return Whether a frame was output, rather than an error message printed.
+     */
+    private boolean runAlgorithm(AsciiOutput output) {
+        if (charset.isEmpty()) {
+            System.out.println(PRINT_INCORRECT_CHARSET);
+            return false;
+        }
+        try {
+            convert(output);
+        } catch (IOException e) {
+            restorePreviousImage();
+            System.out.println(PRINT_INCORRECT_IMAGE);
+            return false;
+        }
+        imageConverted = true;
+        return true;
+    }
+
+    /**
+     * Converts the current image and outputs the result, or outputs the cached
+     * frame if this image was already drawn with this charset and resolution.
+     *
+     * @param output The output to write the frame to.
+     * @throws IOException If the image file cannot be decoded.
+     */
+    private void convert(AsciiOutput output) throws IOException {
+        applyCharset();
+        FrameCache.Key key = imageId == null ? null : FrameCache.key(imageId, imageResolution, charMatcher);
+        if (key != null && FRAME_CACHE.writeCached(key, output)) {
+            return;
+        }
+        if (!FRAME_CACHE.keeps(getNumOfRows(), imageResolution) &&
+                output instanceof AsciiRowOutput) {
+            streamAlgorithm((AsciiRowOutput) output);
+            return;
+        }
+        if (callImProcessor || imageProcessor == null) {
+            imageProcessor = getImageProcessor();
+            callImProcessor = false;
+            key = imageId == null ? null : FrameCache.key(imageId, imageResolution, charMatcher);
+        }
+        AsciiArtAlgorithm asciiArtAlgorithm = new AsciiArtAlgorithm(charMatcher,
+                imageProcessor);
+        char[][] asciiArt = asciiArtAlgorithm.run();
+        if (key == null) {
+            output.out(asciiArt);
+        } else {
+            FRAME_CACHE.putAndWrite(key, asciiArt, output);
+        }
+    }
+
+    /**
+     * Runs the ASCII art generation algorithm on the rows of the brightness
+     * matrix as they are computed, handing each row of ASCII art to the output
+     * as soon as it is ready. Neither the brightness matrix nor the frame is
+     * ever held whole, so the memory used is bounded by a row, or by a strip of
+     * an image too large to decode whole.
+     *
+     * @param output The output receiving the rows.
+     * @throws IOException If the image file cannot be decoded.
+     */
+    private void streamAlgorithm(AsciiRowOutput output) throws IOException {
+        try (BrightnessRowStream rows = openBrightnessRows()) {
+            new AsciiArtAlgorithm(charMatcher, rows).run(output);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Opens the rows of the brightness matrix of the current image at the current
+     * resolution, from the decoded image if it is decoded whole.
+     *
+     * @return The stream of the brightness rows, which must be closed.
+     * @throws IOException If the image file cannot be decoded.
+     */
+    private BrightnessRowStream openBrightnessRows() throws IOException {
+        if (imageSource.getSubsampling(imageResolution) == 1 && imageSource.isDecodedWhole()) {
+            loadImage();
+            return new BrightnessRowStream(image, imageResolution);
+        }
+        return imageSource.openRows(imageResolution);
+    }
+
+    /**
+     * Computes the number of rows of ASCII art of the current image at the
+     * current resolution, from its padded dimensions.
+     */
+    private int getNumOfRows() {
+        ImageHeader header = imageSource.getHeader();
+        return header.getPaddedHeight() / (header.getPaddedWidth() / imageResolution);
     }
 
     /**
      * The main method to start the shell.
      *
-     * @param args Command-line arguments (not used).
-     * @throws IOException If an error occurs while initializing the shell.
+     * @param args Command-line arguments: none for an interactive shell, or the
+     *             path of a script to run, "-" for a script piped to the standard input.
+     * @throws IOException If an error occurs while initializing the shell or reading the script.
      */
     public static void main(String[] args) throws IOException {
         Shell shell = new Shell();
-        shell.run();
-
+        if (args.length == 0) {
+            shell.run();
+        } else if (args[0].equals(STDIN_SCRIPT)) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(System.in,
+                    Charset.defaultCharset()));
+            List<String> script = new ArrayList<>();
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                script.add(line);
+            }
+            shell.runScript(script);
+        } else {
+            shell.runScript(Files.readAllLines(Paths.get(args[0]), Charset.defaultCharset()));
+        }
     }
 }
@@ -0,0 +1,23 @@
+package ascii_output;
+
+/**
+ * An object implementing this interface can output a 2D array of chars
+ * one row at a time, as the rows become available.
+ */
+public interface AsciiRowOutput {
+    /**
+     * Start the output of a new 2D array of chars.
+     * @param numOfColumns the number of chars in each row
+     */
+    void begin(int numOfColumns);
+
+    /**
+     * Output the next row of the 2D array of chars.
+     */
+    void outRow(char[] row);
+
+    /**
+     * Finish the output of the current 2D array of chars.
+     */
+    void end();
+}
@@ -1,16 +1,135 @@
 package ascii_output;
 
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+
 /**
  * Output a 2D array of chars to the console.
+ * The whole frame is laid out in a reusable char buffer and printed with a
+ * single write, rather than one print call per char. Streamed rows are
+ * printed with one write per row. A frame can also be encoded in the charset
+ * of System.out, as it prints it, and written later as is.
  * @author Dan Nirel
- */public class ConsoleAsciiOutput implements AsciiOutput{
+ */public class ConsoleAsciiOutput implements EncodedAsciiOutput, AsciiRowOutput{
+    private static final char SEPARATOR = ' ';
+    // PrintStream.charset(), from Java 18 on, or null before it
+    private static final Method CHARSET_METHOD = findCharsetMethod();
+
+    private char[] frame = new char[0];
+    private char[] line = new char[0];
+
     @Override
     public void out(char[][] chars) {
-        for (int y = 0; y < chars.length ; y++) {
-            for (int x = 0; x < chars[y].length; x++) {
-                System.out.print(chars[y][x] + " ");
+        layOutFrame(chars);
+        System.out.print(frame);
+        System.out.flush();
+    }
+
+    @Override
+    public String getFormat() {
+        return "console|" + getCharset().name() + "|" + System.lineSeparator();
+    }
+
+    @Override
+    public byte[] encode(char[][] chars) {
+        layOutFrame(chars);
+        ByteBuffer encoded = getCharset().encode(CharBuffer.wrap(frame));
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public void write(byte[] encoded) {
+        System.out.write(encoded, 0, encoded.length);
+        System.out.flush();
+    }
+
+    /**
+     * Returns the charset System.out encodes chars with, which on Java 18 and
+     * later may differ from the default charset: its own one if it tells,
+     * otherwise the one of the stdout.encoding or sun.stdout.encoding property,
+     * and the default charset if neither is set.
+     */
+    private static Charset getCharset() {
+        if (CHARSET_METHOD != null) {
+            try {
+                return (Charset) CHARSET_METHOD.invoke(System.out);
+            } catch (ReflectiveOperationException e) {
+                // fall back on the properties
             }
-            System.out.println();
         }
+        String name = System.getProperty("stdout.encoding", System.getProperty("sun.stdout.encoding"));
+        if (name != null) {
+            try {
+                return Charset.forName(name);
+            } catch (IllegalArgumentException e) {
+                // an unknown name, as System.out falls back on the default charset
+            }
+        }
+        return Charset.defaultCharset();
+    }
+
+    private static Method findCharsetMethod() {
+        try {
+            return PrintStream.class.getMethod("charset");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Lays out a whole frame in the frame buffer.
+     */
+    private void layOutFrame(char[][] chars) {
+        String lineSeparator = System.lineSeparator();
+        int length = 0;
+        for (char[] row : chars) {
+            length += row.length * 2 + lineSeparator.length();
+        }
+        // the buffer must be exactly the frame's size, as the whole array is printed
+        if (frame.length != length) {
+            frame = new char[length];
+        }
+        int position = 0;
+        for (char[] row : chars) {
+            position = layOutRow(row, frame, position, lineSeparator);
+        }
+    }
+
+    @Override
+    public void begin(int numOfColumns) {
+        int length = numOfColumns * 2 + System.lineSeparator().length();
+        if (line.length != length) {
+            line = new char[length];
+        }
+    }
+
+    @Override
+    public void outRow(char[] row) {
+        layOutRow(row, line, 0, System.lineSeparator());
+        System.out.print(line);
+    }
+
+    @Override
+    public void end() {
+        System.out.flush();
+    }
+
+    /**
+     * Copies a row into a buffer, each char followed by a space, and ends the line.
+     *
+     * @return The position in the buffer after the row.
+     */
+    private static int layOutRow(char[] row, char[] buffer, int position, String lineSeparator) {
+        for (char c : row) {
+            buffer[position++] = c;
+            buffer[position++] = SEPARATOR;
+        }
+        lineSeparator.getChars(0, lineSeparator.length(), buffer, position);
+        return position + lineSeparator.length();
     }
 }
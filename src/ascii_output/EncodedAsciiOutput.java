@@ -0,0 +1,25 @@
+package ascii_output;
+
+/**
+ * An output that can encode a 2D array of chars into the exact bytes it would
+ * output for it, and output such bytes later on, e.g. from a cache.
+ */
+public interface EncodedAsciiOutput extends AsciiOutput {
+    /**
+     * Describes everything besides the chars that the encoding depends on, so
+     * two outputs with the same format encode the same chars into the same bytes.
+     * @return the format of the encoding
+     */
+    String getFormat();
+
+    /**
+     * Encode the specified 2D array of chars as out would output it
+     * @return the encoded bytes
+     */
+    byte[] encode(char[][] chars);
+
+    /**
+     * Output bytes encoded by an output of the same format
+     */
+    void write(byte[] encoded);
+}
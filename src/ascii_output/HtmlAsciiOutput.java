@@ -1,30 +1,157 @@
 package ascii_output;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
 import java.util.logging.Logger;
 
 /**
  * Output a 2D array of chars to an HTML file viewable in a web browser.
+ * The document is encoded as UTF-8 straight into a direct buffer and written
+ * through a file channel. Rows can also be streamed one at a time through
+ * {@link AsciiRowOutput}, so a document can be written before all of its rows
+ * exist. A whole document can also be encoded in memory, and written later in
+ * a single write.
  * @author Dan Nirel
  */
-public class HtmlAsciiOutput implements AsciiOutput {
+public class HtmlAsciiOutput implements EncodedAsciiOutput, AsciiRowOutput {
     private static final double BASE_LINE_SPACING = 0.8;
     private static final double BASE_FONT_SIZE = 150.0;
+    private static final int BUFFER_SIZE = 1 << 20;
+    // the longest encoding of a single char: "&amp;"
+    private static final int MAX_CHAR_BYTES = 5;
+    private static final byte UNMAPPABLE = '?';
+    // the encoding of every ASCII char, with the HTML special chars escaped
+    private static final byte[][] ASCII_ENCODINGS = new byte[128][];
+
+    static {
+        for (char c = 0; c < ASCII_ENCODINGS.length; c++) {
+            String htmlRep;
+            switch(c) {
+                case '<': htmlRep = "&lt;";  break;
+                case '>': htmlRep = "&gt;";  break;
+                case '&': htmlRep = "&amp;"; break;
+                default:  htmlRep = String.valueOf(c);
+            }
+            ASCII_ENCODINGS[c] = htmlRep.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
 
     private final String fontName;
     private final String filename;
+    private ByteBuffer buffer;
+    private WritableByteChannel channel;
 
     public HtmlAsciiOutput(String filename, String fontName) {
         this.fontName = fontName;
         this.filename = filename;
     }
 
+    /**
+     * Constructs an output that encodes through the given buffer rather than
+     * its own, so one buffer can serve many outputs used one after the other,
+     * e.g. all the outputs written by one thread.
+     *
+     * @param filename The file to write to.
+     * @param fontName The font the document is displayed in.
+     * @param buffer A buffer from allocateBuffer, not used by another output at the same time.
+     */
+    public HtmlAsciiOutput(String filename, String fontName, ByteBuffer buffer) {
+        this(filename, fontName);
+        this.buffer = buffer;
+    }
+
+    /**
+     * Allocates a direct buffer for the outputs of the three-argument constructor.
+     *
+     * @return The buffer.
+     */
+    public static ByteBuffer allocateBuffer() {
+        return ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
     @Override
     public void out(char[][] chars) {
-        try(BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
-            writer.write(String.format(
+        begin(chars[0].length);
+        for (char[] row : chars) {
+            outRow(row);
+        }
+        end();
+    }
+
+    @Override
+    public String getFormat() {
+        // the font size in the header is formatted in the default locale
+        return "html|" + fontName + "|" + Locale.getDefault(Locale.Category.FORMAT) + "|" +
+                System.lineSeparator();
+    }
+
+    @Override
+    public byte[] encode(char[][] chars) {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        begin(chars[0].length, Channels.newChannel(encoded));
+        for (char[] row : chars) {
+            outRow(row);
+        }
+        end();
+        return encoded.toByteArray();
+    }
+
+    @Override
+    public void write(byte[] encoded) {
+        try {
+            channel = openFile();
+            ByteBuffer bytes = ByteBuffer.wrap(encoded);
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.close();
+            channel = null;
+        } catch(IOException e) {
+            fail();
+        }
+    }
+
+    /**
+     * Starts a new document, truncating the file and writing the HTML header.
+     *
+     * @param numOfColumns The number of chars in each row, which sets the font size.
+     */
+    @Override
+    public void begin(int numOfColumns) {
+        try {
+            begin(numOfColumns, openFile());
+        } catch(IOException e) {
+            fail();
+        }
+    }
+
+    /**
+     * Opens the file for a new document, truncating it.
+     */
+    private FileChannel openFile() throws IOException {
+        return FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Starts a new document written to the given channel, writing the HTML header.
+     */
+    private void begin(int numOfColumns, WritableByteChannel sink) {
+        if (buffer == null) {
+            buffer = allocateBuffer();
+        }
+        buffer.clear();
+        channel = sink;
+        try {
+            put(String.format(
                 "<!DOCTYPE html>\n"+
                 "<html>\n"+
                 "<body style=\""+
@@ -37,27 +164,114 @@ public class HtmlAsciiOutput implements AsciiOutput {
                     "\tFONT-SIZE:%frem;"+
                     "\tLETTER-SPACING:0.15em;"+
                     "\tLINE-HEIGHT:%fem;\">\n",
-                    fontName, BASE_FONT_SIZE/chars[0].length, BASE_LINE_SPACING));
-
-            for(int y = 0 ; y < chars.length ; y++) {
-                for (int x = 0; x < chars[y].length ; x++) {
-                    String htmlRep;
-                    switch(chars[y][x]) {
-                        case '<': htmlRep = "&lt;";  break;
-                        case '>': htmlRep = "&gt;";  break;
-                        case '&': htmlRep = "&amp;"; break;
-                        default:  htmlRep = String.valueOf(chars[y][x]);
-                    }
-                    writer.write(htmlRep);
+                    fontName, BASE_FONT_SIZE/numOfColumns, BASE_LINE_SPACING));
+        } catch(IOException e) {
+            fail();
+        }
+    }
+
+    /**
+     * Writes one row of the document started by begin.
+     *
+     * @param row The chars of the row.
+     */
+    @Override
+    public void outRow(char[] row) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            for (char c : row) {
+                if (buffer.remaining() < MAX_CHAR_BYTES) {
+                    flush();
                 }
-                writer.newLine();
+                putChar(c);
             }
-            writer.write(
+            put(System.lineSeparator());
+        } catch(IOException e) {
+            fail();
+        }
+    }
+
+    /**
+     * Writes the end of the document started by begin and closes the file.
+     */
+    @Override
+    public void end() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            put(
                 "</p>\n"+
                 "</body>\n"+
                 "</html>\n");
+            flush();
+            channel.close();
+            channel = null;
         } catch(IOException e) {
-            Logger.getGlobal().severe(String.format("Failed to write to \"%s\"", filename));
+            fail();
+        }
+    }
+
+    /**
+     * Encodes a single char into the buffer, which must have room for it.
+     */
+    private void putChar(char c) {
+        if (c < ASCII_ENCODINGS.length) {
+            buffer.put(ASCII_ENCODINGS[c]);
+        } else if (c < 0x800) {
+            buffer.put((byte) (0xC0 | (c >> 6)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        } else if (Character.isSurrogate(c)) {
+            // half of a surrogate pair cannot be encoded on its own
+            buffer.put(UNMAPPABLE);
+        } else {
+            buffer.put((byte) (0xE0 | (c >> 12)));
+            buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        }
+    }
+
+    /**
+     * Encodes markup, which is not escaped, into the buffer, flushing it as needed.
+     */
+    private void put(String markup) throws IOException {
+        byte[] bytes = markup.getBytes(StandardCharsets.UTF_8);
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    /**
+     * Writes the content of the buffer to the file and empties it.
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Reports a failed write and abandons the current document.
+     */
+    private void fail() {
+        Logger.getGlobal().severe(String.format("Failed to write to \"%s\"", filename));
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // the failure was already reported
+            }
+            channel = null;
         }
     }
 }
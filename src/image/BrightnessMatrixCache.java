@@ -0,0 +1,221 @@
+package image;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, thread-safe cache of the brightness matrices of image files.
+ * An image is identified by its file: the real path, the last modification time
+ * and the size, so a file changed on disk is a different image. A matrix is
+ * cached with the resolution it was computed at. The cache is bounded by the
+ * memory its matrices take; when it is over budget, the least recently used
+ * matrices are evicted.
+ */
+public class BrightnessMatrixCache {
+    /**
+     * The system property setting the memory budget of the cache in bytes.
+     */
+    public static final String BUDGET_PROPERTY = "ascii_art.brightnessCacheBytes";
+    /**
+     * The default memory budget, 64 MiB.
+     */
+    public static final long DEFAULT_BUDGET = 64L << 20;
+    // the memory of an array and of an entry of the map, besides their content
+    private static final int ARRAY_OVERHEAD = 16;
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final long budget;
+    private final LinkedHashMap<Key, ImageProcessor> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * The identity of an image file at the time it was read.
+     */
+    public static final class ImageId {
+        private final Path path;
+        private final long lastModified;
+        private final long size;
+
+        private ImageId(Path path, long lastModified, long size) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        /**
+         * Identifies the current content of an image file, from its metadata.
+         *
+         * @param filename The image file.
+         * @return The identity of the file as it is now.
+         * @throws IOException If the file's attributes cannot be read.
+         */
+        public static ImageId of(String filename) throws IOException {
+            Path path = Paths.get(filename).toRealPath();
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new ImageId(path, attributes.lastModifiedTime().toMillis(), attributes.size());
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof ImageId)) {
+                return false;
+            }
+            ImageId id = (ImageId) other;
+            return path.equals(id.path) && lastModified == id.lastModified && size == id.size;
+        }
+
+        @Override
+        public int hashCode() {
+            return (path.hashCode() * 31 + Long.hashCode(lastModified)) * 31 + Long.hashCode(size);
+        }
+    }
+
+    /**
+     * An image at one resolution.
+     */
+    private static final class Key {
+        private final ImageId image;
+        private final int resolution;
+
+        private Key(ImageId image, int resolution) {
+            this.image = image;
+            this.resolution = resolution;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return image.equals(key.image) && resolution == key.resolution;
+        }
+
+        @Override
+        public int hashCode() {
+            return image.hashCode() * 31 + resolution;
+        }
+    }
+
+    /**
+     * Constructs an empty cache.
+     *
+     * @param budget The maximal number of bytes the cached matrices may take.
+     */
+    public BrightnessMatrixCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Constructs an empty cache, with the budget of the BUDGET_PROPERTY system
+     * property, or DEFAULT_BUDGET if it is not set.
+     */
+    public BrightnessMatrixCache() {
+        this(Long.getLong(BUDGET_PROPERTY, DEFAULT_BUDGET));
+    }
+
+    /**
+     * Looks up the processed image of a file at a resolution.
+     *
+     * @param image The identity of the image file.
+     * @param resolution The resolution of the matrix.
+     * @return The image processor holding the brightness matrix, or null if it is not cached.
+     */
+    public synchronized ImageProcessor get(ImageId image, int resolution) {
+        ImageProcessor imageProcessor = entries.get(new Key(image, resolution));
+        if (imageProcessor == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return imageProcessor;
+    }
+
+    /**
+     * Stores the processed image of a file at a resolution, evicting the least
+     * recently used ones while over budget. A matrix larger than the whole
+     * budget is not stored.
+     *
+     * @param image The identity of the image file.
+     * @param resolution The resolution of the matrix.
+     * @param imageProcessor The image processor holding the brightness matrix.
+     */
+    public synchronized void put(ImageId image, int resolution, ImageProcessor imageProcessor) {
+        long size = sizeOf(imageProcessor);
+        if (size > budget) {
+            return;
+        }
+        ImageProcessor previous = entries.put(new Key(image, resolution), imageProcessor);
+        if (previous != null) {
+            bytes -= sizeOf(previous);
+        }
+        bytes += size;
+        Iterator<ImageProcessor> eldest = entries.values().iterator();
+        while (bytes > budget) {
+            bytes -= sizeOf(eldest.next());
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Estimates the memory taken by a cached brightness matrix.
+     */
+    private static long sizeOf(ImageProcessor imageProcessor) {
+        double[][] brightness = imageProcessor.getBrightness();
+        long size = ENTRY_OVERHEAD + ARRAY_OVERHEAD + (long) brightness.length * Long.BYTES;
+        for (double[] row : brightness) {
+            size += ARRAY_OVERHEAD + (long) row.length * Double.BYTES;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of lookups that found their matrix.
+     * @return The number of hits.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that did not find their matrix.
+     * @return The number of misses.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of matrices evicted to stay within the budget.
+     * @return The number of evictions.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the estimated number of bytes taken by the cached matrices.
+     * @return The memory used by the cache.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the number of matrices currently cached.
+     * @return The size of the cache.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,280 @@
+package image;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Produces the brightness matrix of an image one row at a time, in the order
+ * of the rows. Each row is calculated from a single band of pixel rows when it
+ * is requested, so only one row of brightness values exists at any time.
+ * The values are identical to the ones of the matching ImageProcessor.
+ * <p>
+ * The pixels come either from an image already in memory, or from an image
+ * file decoded strip by strip, in which case at most one strip of pixels is in
+ * memory at a time and the heap needed does not depend on the size of the image.
+ * <p>
+ * For quick previews, an image file can also be subsampled while it is decoded:
+ * only the pixels on a grid of every n-th row and column are decoded, and the
+ * brightness of each sub-image is the average of the grid pixels inside it.
+ * Such values are an estimate, and differ from the ones of ImageProcessor.
+ * Closing the stream closes its image file.
+ */
+public class BrightnessRowStream implements Closeable {
+    /**
+     * Default maximal number of pixels in a decoded strip, 64 MB of packed pixels.
+     */
+    public static final int DEFAULT_STRIP_PIXELS = 1 << 24;
+    /**
+     * The number of grid pixels along each side of a sub-image chosen by
+     * getPreviewSubsampling, 64 samples per sub-image.
+     */
+    public static final int PREVIEW_SAMPLES_PER_SIDE = 8;
+    private static final int MAX_RGB_VALUE = 255;
+
+    private final int width;
+    private final int height;
+    private final ImageStrips strips;
+    private final int stripRows;
+    private final int subsampling;
+    private final int subImageSize;
+    private final int numOfRows;
+    private final int numOfColumns;
+    private final int newWidth;
+    private final int newHeight;
+    private final int paddingWidth;
+    private final int paddingHeight;
+    private final double paddingBrightnessSum;
+    private final double[] brightnessSums;
+    private final double[] brightnessRow;
+    // the pixels in memory, addressed by their row in the whole image
+    private Image pixels;
+    private int pixelsStart;
+    private int pixelsEnd;
+    private int nextRow;
+
+    /**
+     * Constructs a stream of the brightness rows of the given image.
+     *
+     * @param image The image to be processed.
+     * @param resolution The number of sub-images in each row.
+     */
+    public BrightnessRowStream(Image image, int resolution) {
+        this(image.getWidth(), image.getHeight(), null, 0, 1, resolution);
+        pixels = image;
+        pixelsEnd = height;
+    }
+
+    /**
+     * Constructs a stream of the brightness rows of an image file, decoded in
+     * strips of the default size.
+     *
+     * @param strips The image file to be processed.
+     * @param resolution The number of sub-images in each row.
+     */
+    public BrightnessRowStream(ImageStrips strips, int resolution) {
+        this(strips, resolution, DEFAULT_STRIP_PIXELS);
+    }
+
+    /**
+     * Constructs a stream of the brightness rows of an image file, decoded in
+     * strips of at most the given number of pixels. A strip always holds at least
+     * one row.
+     *
+     * @param strips The image file to be processed.
+     * @param resolution The number of sub-images in each row.
+     * @param maxStripPixels The maximal number of pixels decoded at once.
+     */
+    public BrightnessRowStream(ImageStrips strips, int resolution, int maxStripPixels) {
+        this(strips, resolution, maxStripPixels, 1);
+    }
+
+    /**
+     * Constructs a stream of estimated brightness rows of an image file,
+     * subsampled while it is decoded in strips of at most the given number of
+     * decoded pixels. A subsampling of 1 decodes every pixel, and gives the exact
+     * brightness.
+     *
+     * @param strips The image file to be processed.
+     * @param resolution The number of sub-images in each row.
+     * @param maxStripPixels The maximal number of pixels decoded at once.
+     * @param subsampling The distance between two decoded pixels, in each direction.
+     */
+    public BrightnessRowStream(ImageStrips strips, int resolution, int maxStripPixels, int subsampling) {
+        this(strips.getWidth(), strips.getHeight(), strips,
+                Math.max(1, maxStripPixels / ceilDiv(strips.getWidth(), subsampling)),
+                subsampling, resolution);
+    }
+
+    private BrightnessRowStream(int width, int height, ImageStrips strips, int stripRows,
+                                int subsampling, int resolution) {
+        this.width = width;
+        this.height = height;
+        this.strips = strips;
+        this.stripRows = stripRows;
+        this.subsampling = subsampling;
+        newWidth = ImageProcessor.getNextPowerOfTwo(width);
+        newHeight = ImageProcessor.getNextPowerOfTwo(height);
+        paddingWidth = (newWidth - width) / 2;
+        paddingHeight = (newHeight - height) / 2;
+        subImageSize = newWidth / resolution;
+        numOfRows = newHeight / subImageSize;
+        numOfColumns = resolution;
+        paddingBrightnessSum = ImageProcessor.sumPaddingBrightness(subImageSize);
+        brightnessSums = new double[numOfColumns];
+        brightnessRow = new double[numOfColumns];
+        // until a strip is decoded, every row reads as white
+        pixels = new Image(new int[0], 0, 0);
+    }
+
+    /**
+     * Chooses a subsampling for a quick preview: the largest one that still
+     * leaves PREVIEW_SAMPLES_PER_SIDE grid pixels along each side of a sub-image,
+     * or 1 when the sub-images are too small to subsample.
+     *
+     * @param width The width of the image.
+     * @param resolution The number of sub-images in each row.
+     * @return The subsampling to decode the image with.
+     */
+    public static int getPreviewSubsampling(int width, int resolution) {
+        int subImageSize = ImageProcessor.getNextPowerOfTwo(width) / resolution;
+        return Math.max(1, subImageSize / PREVIEW_SAMPLES_PER_SIDE);
+    }
+
+    /**
+     * Returns the number of rows of the brightness matrix.
+     * @return The number of rows.
+     */
+    public int getNumOfRows() {
+        return numOfRows;
+    }
+
+    /**
+     * Returns the number of columns of the brightness matrix.
+     * @return The number of columns.
+     */
+    public int getNumOfColumns() {
+        return numOfColumns;
+    }
+
+    /**
+     * Returns the width of the image after adding the padding.
+     * @return The padded width.
+     */
+    int getNewWidth() {
+        return newWidth;
+    }
+
+    /**
+     * Returns the height of the image after adding the padding.
+     * @return The padded height.
+     */
+    int getNewHeight() {
+        return newHeight;
+    }
+
+    /**
+     * Checks whether there are rows left to produce.
+     * @return true if nextRow may be called.
+     */
+    public boolean hasNextRow() {
+        return nextRow < numOfRows;
+    }
+
+    /**
+     * Calculates the next row of the brightness matrix. The returned array is
+     * reused, and is overwritten by the following call.
+     *
+     * @return The brightness of each sub-image in the row.
+     * @throws UncheckedIOException if a strip of the image file cannot be decoded.
+     */
+    public double[] nextRow() {
+        int top = nextRow * subImageSize - paddingHeight;
+        boolean paddingRow = top + subImageSize <= 0 || top >= height;
+        Arrays.fill(brightnessSums, 0);
+        // each sub-image is summed row by row, in the same order as ImageProcessor does;
+        // when subsampling, only the rows and columns on the grid are visited
+        for (int i = firstOnGrid(top); i < top + subImageSize && !paddingRow; i += subsampling) {
+            Image rows = getPixels(i);
+            for (int col = 0; col < numOfColumns; col++) {
+                if (isPaddingColumn(col)) {
+                    continue;
+                }
+                int left = col * subImageSize - paddingWidth;
+                double brightnessSum = brightnessSums[col];
+                for (int j = firstOnGrid(left); j < left + subImageSize; j += subsampling) {
+                    brightnessSum += ImageProcessor.getGreyPixel(
+                            rows.getPixelRGB(Math.floorDiv(i, subsampling), Math.floorDiv(j, subsampling)));
+                }
+                brightnessSums[col] = brightnessSum;
+            }
+        }
+        for (int col = 0; col < numOfColumns; col++) {
+            if (paddingRow || isPaddingColumn(col)) {
+                brightnessRow[col] = ImageProcessor.toBrightness(paddingBrightnessSum, subImageSize);
+            } else if (subsampling == 1) {
+                brightnessRow[col] = ImageProcessor.toBrightness(brightnessSums[col], subImageSize);
+            } else {
+                int left = col * subImageSize - paddingWidth;
+                double samples = (double) countOnGrid(top) * countOnGrid(left);
+                brightnessRow[col] = brightnessSums[col] / (samples * MAX_RGB_VALUE);
+            }
+        }
+        nextRow++;
+        return brightnessRow;
+    }
+
+    /**
+     * Finds the first row or column of the subsampling grid at or after the given one.
+     */
+    private int firstOnGrid(int start) {
+        return start + Math.floorMod(-start, subsampling);
+    }
+
+    /**
+     * Counts the rows or columns of the subsampling grid in a sub-image starting at the given one.
+     */
+    private int countOnGrid(int start) {
+        return Math.floorDiv(start + subImageSize - 1, subsampling) - Math.floorDiv(start - 1, subsampling);
+    }
+
+    private static int ceilDiv(int dividend, int divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+
+    /**
+     * Gets pixels that hold the given row, decoding the strip starting at it if
+     * needed. The pixels are addressed by their row and column in the whole image
+     * divided by the subsampling, and pixels outside the image read as white.
+     */
+    private Image getPixels(int row) {
+        if (row >= 0 && row < height && (row < pixelsStart || row >= pixelsEnd)) {
+            int numOfRows = Math.min(stripRows * subsampling, height - row);
+            try {
+                pixels = strips.readStrip(row, numOfRows, subsampling).getSubImage(-row / subsampling, 0,
+                        ceilDiv(height, subsampling), ceilDiv(width, subsampling));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            pixelsStart = row;
+            pixelsEnd = row + numOfRows;
+        }
+        return pixels;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (strips != null) {
+            strips.close();
+        }
+    }
+
+    /**
+     * Checks whether a column of sub-images lies entirely in the padding.
+     */
+    private boolean isPaddingColumn(int col) {
+        int left = col * subImageSize - paddingWidth;
+        return left + subImageSize <= 0 || left >= width;
+    }
+}
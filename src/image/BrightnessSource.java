@@ -0,0 +1,191 @@
+package image;
+
+import java.io.IOException;
+
+/**
+ * An image file, and the way its brightness is computed, chosen from its
+ * header alone. An image whose decoded pixels fit in the decode budget is
+ * decoded whole and processed in memory. A larger one is decoded strip by
+ * strip, with strips that fit in the budget, so that it is converted within a
+ * fixed heap whatever its size.
+ * <p>
+ * At a low resolution, an image of at least PREVIEW_MIN_PIXELS pixels is
+ * subsampled while it is decoded, for a quick preview: see
+ * BrightnessRowStream.getPreviewSubsampling. Its brightness is then an
+ * estimate. A smaller image decodes quickly enough in full, so its brightness
+ * stays exact at every resolution.
+ * <p>
+ * By default an image decoded whole is converted by ImageProcessor, whose
+ * brightness is exact to the bit at every resolution. Optionally, its
+ * summed-area table is built once instead, so switching resolutions costs
+ * no rescan; the table takes 8 bytes per pixel, and its brightness may differ
+ * in the last few bits, so it is used only on request and within the budget.
+ */
+public class BrightnessSource {
+    /**
+     * The system property setting the decode budget in bytes.
+     */
+    public static final String BUDGET_PROPERTY = "ascii_art.decodeBudgetBytes";
+    /**
+     * The system property enabling the summed-area table, when set to true.
+     */
+    public static final String INTEGRAL_IMAGE_PROPERTY = "ascii_art.integralImage";
+    /**
+     * The system property setting the highest resolution an image of at least
+     * PREVIEW_MIN_PIXELS pixels is converted at as a subsampled preview, 0 to
+     * always decode every pixel.
+     */
+    public static final String PREVIEW_RESOLUTION_PROPERTY = "ascii_art.previewResolution";
+    /**
+     * The default highest preview resolution.
+     */
+    public static final int DEFAULT_PREVIEW_RESOLUTION = 64;
+    /**
+     * The number of pixels from which an image is converted as a preview at a
+     * low resolution, 4 megapixels.
+     */
+    public static final long PREVIEW_MIN_PIXELS = 4_000_000L;
+    // while an image is decoded whole, each pixel is held both by the decoder's
+    // image and by the packed copy
+    private static final int DECODED_PIXEL_BYTES = 8;
+    // once decoded, each pixel is held packed, next to its entry of the table
+    private static final int TABLE_PIXEL_BYTES = Integer.BYTES + Long.BYTES;
+    // the default budget is this fraction of the maximal heap
+    private static final int HEAP_FRACTION = 2;
+
+    private final String filename;
+    private final ImageHeader header;
+    private final long budget;
+    private final boolean integralImage;
+    private final int previewResolution;
+
+    /**
+     * Constructs the source of an image file with the given decode budget.
+     *
+     * @param filename The path of the image file.
+     * @param header The header of the image file.
+     * @param budget The maximal number of bytes decoded pixels may take.
+     * @param integralImage Whether to use the summed-area table when it fits in the budget.
+     * @param previewResolution The highest resolution converted as a subsampled preview.
+     */
+    public BrightnessSource(String filename, ImageHeader header, long budget, boolean integralImage,
+                            int previewResolution) {
+        this.filename = filename;
+        this.header = header;
+        this.budget = budget;
+        this.integralImage = integralImage;
+        this.previewResolution = previewResolution;
+    }
+
+    /**
+     * Constructs the source of an image file, with the budget of the
+     * BUDGET_PROPERTY system property, or half the maximal heap if it is not set,
+     * the summed-area table if the INTEGRAL_IMAGE_PROPERTY property is true, and
+     * the previews of the PREVIEW_RESOLUTION_PROPERTY property, or of
+     * DEFAULT_PREVIEW_RESOLUTION if it is not set.
+     *
+     * @param filename The path of the image file.
+     * @param header The header of the image file.
+     */
+    public BrightnessSource(String filename, ImageHeader header) {
+        this(filename, header, getDefaultBudget());
+    }
+
+    /**
+     * Constructs the source of an image file with the given decode budget, and
+     * the summed-area table and previews of the system properties.
+     *
+     * @param filename The path of the image file.
+     * @param header The header of the image file.
+     * @param budget The maximal number of bytes decoded pixels may take.
+     */
+    public BrightnessSource(String filename, ImageHeader header, long budget) {
+        this(filename, header, budget, Boolean.getBoolean(INTEGRAL_IMAGE_PROPERTY),
+                Integer.getInteger(PREVIEW_RESOLUTION_PROPERTY, DEFAULT_PREVIEW_RESOLUTION));
+    }
+
+    /**
+     * Returns the decode budget of the BUDGET_PROPERTY system property, or half
+     * the maximal heap if it is not set.
+     * @return The default decode budget in bytes.
+     */
+    public static long getDefaultBudget() {
+        return Long.getLong(BUDGET_PROPERTY, Runtime.getRuntime().maxMemory() / HEAP_FRACTION);
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public ImageHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * Chooses the subsampling the image is decoded with at a resolution: the
+     * preview subsampling up to the preview resolution, if the image has at
+     * least PREVIEW_MIN_PIXELS pixels, and 1 otherwise.
+     *
+     * @param resolution The number of sub-images in each row.
+     * @return The subsampling, 1 when every pixel is decoded.
+     */
+    public int getSubsampling(int resolution) {
+        if (resolution > previewResolution ||
+                (long) header.getWidth() * header.getHeight() < PREVIEW_MIN_PIXELS) {
+            return 1;
+        }
+        return BrightnessRowStream.getPreviewSubsampling(header.getWidth(), resolution);
+    }
+
+    /**
+     * Checks whether the image is small enough to be decoded whole.
+     * @return true if decode may be called.
+     */
+    public boolean isDecodedWhole() {
+        return getDecodedBytes() <= budget;
+    }
+
+    /**
+     * Returns the number of bytes the pixels take while the image is decoded whole.
+     * @return The bytes of the decoded image.
+     */
+    public long getDecodedBytes() {
+        return (long) header.getWidth() * header.getHeight() * DECODED_PIXEL_BYTES;
+    }
+
+    /**
+     * Checks whether the image is converted from its summed-area table: it was
+     * requested, and the decoded image and its table fit in the budget.
+     * @return true if the table should be built from the decoded image.
+     */
+    public boolean usesIntegralImage() {
+        long pixels = (long) (header.getWidth() + 1) * (header.getHeight() + 1);
+        return integralImage && isDecodedWhole() && pixels * TABLE_PIXEL_BYTES <= budget;
+    }
+
+    /**
+     * Decodes all the pixels of the image.
+     *
+     * @return The image.
+     * @throws IOException if the file cannot be decoded.
+     */
+    public Image decode() throws IOException {
+        return new Image(filename);
+    }
+
+    /**
+     * Opens a stream of the brightness rows of the image, decoded strip by strip
+     * with strips that fit in the budget, and subsampled as getSubsampling
+     * chooses. The stream must be closed.
+     *
+     * @param resolution The number of sub-images in each row.
+     * @return The stream of the brightness rows.
+     * @throws IOException if the file cannot be opened.
+     */
+    public BrightnessRowStream openRows(int resolution) throws IOException {
+        int maxStripPixels = (int) Math.min(BrightnessRowStream.DEFAULT_STRIP_PIXELS,
+                budget / DECODED_PIXEL_BYTES);
+        return new BrightnessRowStream(new ImageStrips(filename), resolution, maxStripPixels,
+                getSubsampling(resolution));
+    }
+}
@@ -3,39 +3,114 @@ package image;
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
 import java.io.File;
 import java.io.IOException;
 
 /**
  * A package-private class of the package image.
+ * Pixels are stored row by row in a single packed ARGB buffer rather than as
+ * one Color object per pixel. An Image may also be a view of a rectangular
+ * region of another image's buffer. A view may extend past the edges of that
+ * buffer, in which case the pixels outside it read as white.
  * @author Dan Nirel
  */
 public class Image {
 
-    private final Color[][] pixelArray;
+    private static final int WHITE_RGB = 0xFFFFFFFF;
+    private static final int OPAQUE_ALPHA = 0xFF000000;
+    private static final int BYTE_MASK = 0xFF;
+
+    private final int[] pixels;
+    private final int rowOrigin;
+    private final int colOrigin;
+    private final int sourceWidth;
+    private final int sourceHeight;
     private final int width;
     private final int height;
 
     public Image(String filename) throws IOException {
-        BufferedImage im = ImageIO.read(new File(filename));
+        this(ImageIO.read(new File(filename)));
+    }
+
+    /**
+     * Copies the pixels of an already decoded image.
+     *
+     * @param im The decoded image.
+     */
+    public Image(BufferedImage im) {
         width = im.getWidth();
         height = im.getHeight();
+        rowOrigin = 0;
+        colOrigin = 0;
+        sourceWidth = width;
+        sourceHeight = height;
+        pixels = readPixels(im);
+    }
 
-
-        pixelArray = new Color[height][width];
+    public Image(Color[][] pixelArray, int width, int height) {
+        this.pixels = new int[height * width];
+        this.rowOrigin = 0;
+        this.colOrigin = 0;
+        this.sourceWidth = width;
+        this.sourceHeight = height;
+        this.width = width;
+        this.height = height;
         for (int i = 0; i < height; i++) {
             for (int j = 0; j < width; j++) {
-                pixelArray[i][j]=new Color(im.getRGB(j, i));
+                pixels[i * width + j] = pixelArray[i][j].getRGB();
             }
         }
     }
 
-    public Image(Color[][] pixelArray, int width, int height) {
-        this.pixelArray = pixelArray;
+    /**
+     * Wraps an existing packed ARGB buffer, stored row by row, without copying it.
+     *
+     * @param pixels The packed pixels, of length width * height.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     */
+    public Image(int[] pixels, int width, int height) {
+        this(pixels, 0, 0, width, height, width, height);
+    }
+
+    private Image(int[] pixels, int rowOrigin, int colOrigin, int sourceWidth, int sourceHeight,
+                  int width, int height) {
+        this.pixels = pixels;
+        this.rowOrigin = rowOrigin;
+        this.colOrigin = colOrigin;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
         this.width = width;
         this.height = height;
     }
 
+    /**
+     * Creates a view of a rectangular region of this image. The view shares this
+     * image's pixel buffer, so no pixels are copied. The region may lie partly or
+     * entirely outside the buffer; such pixels read as white.
+     *
+     * @param x The row of the region's top-left pixel, may be negative.
+     * @param y The column of the region's top-left pixel, may be negative.
+     * @param height The height of the region.
+     * @param width The width of the region.
+     * @return An image backed by the same buffer as this one.
+     */
+    Image getSubImage(int x, int y, int height, int width) {
+        return new Image(pixels, rowOrigin + x, colOrigin + y, sourceWidth, sourceHeight, width, height);
+    }
+
+    /**
+     * Checks whether this image lies entirely outside the pixel buffer it views,
+     * meaning every one of its pixels reads as white.
+     */
+    boolean isPadding() {
+        return rowOrigin >= sourceHeight || rowOrigin + height <= 0 ||
+                colOrigin >= sourceWidth || colOrigin + width <= 0;
+    }
+
     public int getWidth() {
         return width;
     }
@@ -44,18 +119,41 @@ public class Image {
         return height;
     }
 
+    /**
+     * Compatibility view of a single pixel. Prefer {@link #getPixelRGB(int, int)}
+     * in loops, as this allocates a new Color on every call.
+     */
     public Color getPixel(int x, int y) {
-        return pixelArray[x][y];
+        return new Color(getPixelRGB(x, y));
+    }
+
+    /**
+     * Gets a single pixel as a packed ARGB int, using the same indexing as getPixel.
+     * Pixels outside the viewed buffer are white.
+     *
+     * @param x The row of the pixel.
+     * @param y The column of the pixel.
+     * @return The packed ARGB value of the pixel.
+     */
+    public int getPixelRGB(int x, int y) {
+        int row = rowOrigin + x;
+        int col = colOrigin + y;
+        if (row < 0 || row >= sourceHeight || col < 0 || col >= sourceWidth) {
+            return WHITE_RGB;
+        }
+        return pixels[row * sourceWidth + col];
     }
 
     public void saveImage(String fileName){
-        // Initialize BufferedImage, assuming Color[][] is already properly populated.
-        BufferedImage bufferedImage = new BufferedImage(pixelArray[0].length, pixelArray.length,
+        // Initialize BufferedImage with the dimensions of the packed pixel buffer.
+        BufferedImage bufferedImage = new BufferedImage(width, height,
                 BufferedImage.TYPE_INT_RGB);
-        // Set each pixel of the BufferedImage to the color from the Color[][].
-        for (int x = 0; x < pixelArray.length; x++) {
-            for (int y = 0; y < pixelArray[x].length; y++) {
-                bufferedImage.setRGB(y, x, pixelArray[x][y].getRGB());
+        // Copy the buffer straight into the BufferedImage's own int buffer;
+        // the unused alpha byte is cleared, as setRGB would.
+        int[] data = ((DataBufferInt) bufferedImage.getRaster().getDataBuffer()).getData();
+        for (int x = 0; x < height; x++) {
+            for (int y = 0; y < width; y++) {
+                data[x * width + y] = getPixelRGB(x, y) & ~OPAQUE_ALPHA;
             }
         }
         File outputfile = new File(fileName+".jpeg");
@@ -66,4 +164,56 @@ public class Image {
         }
     }
 
+    /**
+     * Reads all pixels of a buffered image as packed ARGB ints, row by row, with
+     * the same values getRGB gives. The buffers of the common 8-bit RGB types are
+     * read directly; any other image goes through one bulk getRGB call.
+     *
+     * @param im The image to read.
+     * @return The packed pixels, of length width * height.
+     */
+    static int[] readPixels(BufferedImage im) {
+        int width = im.getWidth();
+        int height = im.getHeight();
+        Raster raster = im.getRaster();
+        boolean plain = raster.getParent() == null && raster.getMinX() == 0 && raster.getMinY() == 0 &&
+                raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0 &&
+                raster.getDataBuffer().getOffset() == 0 && raster.getDataBuffer().getNumBanks() == 1;
+        if (plain) {
+            switch (im.getType()) {
+                case BufferedImage.TYPE_INT_ARGB:
+                    return ((DataBufferInt) raster.getDataBuffer()).getData().clone();
+                case BufferedImage.TYPE_INT_RGB: {
+                    int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+                    int[] pixels = new int[width * height];
+                    for (int i = 0; i < pixels.length; i++) {
+                        pixels[i] = OPAQUE_ALPHA | data[i];
+                    }
+                    return pixels;
+                }
+                case BufferedImage.TYPE_3BYTE_BGR: {
+                    byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+                    int[] pixels = new int[width * height];
+                    for (int i = 0, k = 0; i < pixels.length; i++, k += 3) {
+                        pixels[i] = OPAQUE_ALPHA | (data[k + 2] & BYTE_MASK) << 16 |
+                                (data[k + 1] & BYTE_MASK) << 8 | (data[k] & BYTE_MASK);
+                    }
+                    return pixels;
+                }
+                case BufferedImage.TYPE_4BYTE_ABGR: {
+                    byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+                    int[] pixels = new int[width * height];
+                    for (int i = 0, k = 0; i < pixels.length; i++, k += 4) {
+                        pixels[i] = (data[k] & BYTE_MASK) << 24 | (data[k + 3] & BYTE_MASK) << 16 |
+                                (data[k + 2] & BYTE_MASK) << 8 | (data[k + 1] & BYTE_MASK);
+                    }
+                    return pixels;
+                }
+                default:
+                    break;
+            }
+        }
+        return im.getRGB(0, 0, width, height, null, 0, width);
+    }
+
 }
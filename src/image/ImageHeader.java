@@ -0,0 +1,98 @@
+package image;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * The dimensions of an image file, read from its header alone. No pixel is
+ * decoded and the metadata is skipped, so probing an image costs a few
+ * kilobytes of reading whatever its size.
+ */
+public class ImageHeader {
+
+    private final int width;
+    private final int height;
+
+    private ImageHeader(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Reads the dimensions of an image file from its header.
+     *
+     * @param filename The path of the image file.
+     * @return The dimensions of the image.
+     * @throws IOException if the file cannot be read or is not a supported image.
+     */
+    public static ImageHeader read(String filename) throws IOException {
+        try (ImageInputStream input = openStream(filename)) {
+            ImageReader reader = findReader(input, filename);
+            try {
+                reader.setInput(input, true, true);
+                return new ImageHeader(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Opens an image file as a stream for its readers.
+     *
+     * @param filename The path of the image file.
+     * @return The stream of the file.
+     * @throws IOException if the file cannot be opened.
+     */
+    static ImageInputStream openStream(String filename) throws IOException {
+        ImageInputStream input = ImageIO.createImageInputStream(new File(filename));
+        if (input == null) {
+            throw new IOException("Cannot open " + filename);
+        }
+        return input;
+    }
+
+    /**
+     * Finds a reader for the format of an image stream, without reading past its header.
+     *
+     * @param input The stream of the image file.
+     * @param filename The path of the image file, for the error message.
+     * @return A reader of the format, whose input is not set yet.
+     * @throws IOException if no reader supports the format.
+     */
+    static ImageReader findReader(ImageInputStream input, String filename) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            throw new IOException("Unsupported image format: " + filename);
+        }
+        return readers.next();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the width of the image once padded, as ImageProcessor pads it.
+     * @return The next power of two of the width.
+     */
+    public int getPaddedWidth() {
+        return ImageProcessor.getNextPowerOfTwo(width);
+    }
+
+    /**
+     * Returns the height of the image once padded, as ImageProcessor pads it.
+     * @return The next power of two of the height.
+     */
+    public int getPaddedHeight() {
+        return ImageProcessor.getNextPowerOfTwo(height);
+    }
+}
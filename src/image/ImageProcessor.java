@@ -1,11 +1,14 @@
 package image;
 
-import java.awt.Color;
-
 /**
  * The ImageProcessor class represents a utility for processing images.
  * It provides methods for padding images, splitting them into sub-images,
  * and calculating the brightness matrix.
+ * Padding is virtual: the padded image is never allocated, sub-images are views
+ * of the original image that read white outside of it.
+ * The brightness of the sub-images can be calculated in parallel, in bands of
+ * rows; each sub-image is still summed by one thread, so the result does not
+ * depend on the parallelism.
  */
 public class ImageProcessor {
 
@@ -13,11 +16,27 @@ public class ImageProcessor {
     private static final double RED_VALUE=0.2126;
     private static final double GREEN_VALUE=0.7152;
     private static final double BLUE_VALUE=0.0722;
-    private Image image;
+    /**
+     * Parallelism that calculates the brightness on the calling thread only.
+     */
+    public static final int SERIAL = 1;
+    /**
+     * The system property capping the number of threads every conversion
+     * uses, read once; the number of processors if it is not set.
+     */
+    public static final String PARALLELISM_PROPERTY = "ascii_art.parallelism";
+    /**
+     * The parallelism setting of the PARALLELISM_PROPERTY system property, at least SERIAL.
+     */
+    public static final int PARALLELISM = Math.max(SERIAL,
+            Integer.getInteger(PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors()));
     private final int resolution;
     private final double[][] brightnessMatrix;
     private int newWidth;
     private int newHeight;
+    private int paddingWidth;
+    private int paddingHeight;
+    private double paddingBrightnessSum;
 
     /**
      * Constructs an ImageProcessor with the specified image and resolution.
@@ -26,45 +45,68 @@ public class ImageProcessor {
      * @param resolution The desired resolution for processing.
      */
     public ImageProcessor(Image image, int resolution) {
-        this.image = image;
+        this(image, resolution, SERIAL);
+    }
+
+    /**
+     * Constructs an ImageProcessor with the specified image and resolution,
+     * calculating the brightness on up to the given number of threads.
+     *
+     * @param image The image to be processed.
+     * @param resolution The desired resolution for processing.
+     * @param parallelism The maximal number of threads to use, SERIAL for one;
+     *                    never more than PARALLELISM.
+     */
+    public ImageProcessor(Image image, int resolution, int parallelism) {
         this.resolution = resolution;
-        padImageToPowerOfTwo();
-        Image[][] subImages = splitImage();
-        this.brightnessMatrix = calculateBrightness(subImages);
+        padImageToPowerOfTwo(image.getWidth(), image.getHeight());
+        Image[][] subImages = splitImage(image);
+        this.brightnessMatrix = calculateBrightness(subImages, parallelism);
     }
 
     /**
-     * Pads the image to the nearest power of two dimensions.
+     * Constructs an ImageProcessor whose brightness matrix is read from the
+     * summed-area table of an image, without scanning its pixels again.
+     *
+     * @param integralImage The summed-area table of the image to be processed.
+     * @param resolution The desired resolution for processing.
+     */
+    public ImageProcessor(IntegralImage integralImage, int resolution) {
+        this.resolution = resolution;
+        this.newWidth = integralImage.getNewWidth();
+        this.newHeight = integralImage.getNewHeight();
+        this.brightnessMatrix = integralImage.getBrightness(resolution);
+    }
+
+    /**
+     * Constructs an ImageProcessor whose brightness matrix is collected from
+     * a stream of its rows.
+     *
+     * @param brightnessRows The rows of the brightness matrix, all of which are read.
+     * @throws java.io.UncheckedIOException if a strip of the image file cannot be decoded.
      */
-    private void padImageToPowerOfTwo() {
-        int originalWidth = image.getWidth();
-        int originalHeight = image.getHeight();
+    public ImageProcessor(BrightnessRowStream brightnessRows) {
+        this.resolution = brightnessRows.getNumOfColumns();
+        this.newWidth = brightnessRows.getNewWidth();
+        this.newHeight = brightnessRows.getNewHeight();
+        this.brightnessMatrix = new double[brightnessRows.getNumOfRows()][];
+        for (int row = 0; brightnessRows.hasNextRow(); row++) {
+            brightnessMatrix[row] = brightnessRows.nextRow().clone();
+        }
+    }
 
+    /**
+     * Pads the image to the nearest power of two dimensions. Only the padded
+     * dimensions and the offsets of the original image inside them are computed.
+     */
+    private void padImageToPowerOfTwo(int originalWidth, int originalHeight) {
         // Calculate the new dimensions to pad the image
         newWidth = getNextPowerOfTwo(originalWidth);
         newHeight = getNextPowerOfTwo(originalHeight);
 
         //pr rajouter equitablement des deux cotes
-        int paddingWidth = (newWidth - originalWidth) / 2;
-        int paddingHeight = (newHeight - originalHeight) / 2;
-
-        // Create a new Color array for the padded image
-        Color[][] paddedPixels = new Color[newHeight][newWidth];
-
-        // Initialize all pixels to white for padding
-        for (int i = 0; i < newHeight; i++) {
-            for (int j = 0; j < newWidth; j++) {
-                paddedPixels[i][j] = Color.WHITE;
-            }
-        }
-        // Copy the original pixels to the centered position in the new array
-        for (int i = 0; i < originalHeight; i++) {
-            for (int j = 0; j < originalWidth; j++) {
-                paddedPixels[i + paddingHeight][j + paddingWidth] = image.getPixel(i, j);
-            }
-        }
-        // Create and save a new Image object with the padded pixels
-        this.image = new Image(paddedPixels, newWidth, newHeight);
+        paddingWidth = (newWidth - originalWidth) / 2;
+        paddingHeight = (newHeight - originalHeight) / 2;
     }
 
     /**
@@ -73,7 +115,7 @@ public class ImageProcessor {
      * @param n The input number.
      * @return The next power of two greater than or equal to the input number.
      */
-    private int getNextPowerOfTwo(int n) {
+    static int getNextPowerOfTwo(int n) {
         //if number is power of 2, don't change
         if((n & (n - 1)) == 0){
             return n;
@@ -87,25 +129,21 @@ public class ImageProcessor {
     }
 
     /**
-     * Splits the image into sub-images.
+     * Splits the image into sub-images. Each sub-image is a view of the padded
+     * image's buffer, so only the views themselves are allocated.
      *
+     * @param image The image to split.
      * @return A 2D array of sub-images.
      */
-    private Image[][] splitImage() {
-        int subImageSize = image.getWidth() / resolution;
-        int numOfRows = image.getHeight() / subImageSize;
+    private Image[][] splitImage(Image image) {
+        int subImageSize = newWidth / resolution;
+        int numOfRows = newHeight / subImageSize;
         Image[][] subImages = new Image[numOfRows][resolution];
 
         for (int row = 0; row < numOfRows; row++) {
             for (int col = 0; col < resolution; col++) {
-                Color[][] subImagePixels = new Color[subImageSize][subImageSize];
-                // sub images
-                for (int i = 0; i < subImageSize; i++) {
-                    for (int j = 0; j < subImageSize; j++) {
-                        subImagePixels[i][j] = image.getPixel(row * subImageSize + i, col * subImageSize + j);
-                    }
-                }
-                subImages[row][col] = new Image(subImagePixels, subImageSize, subImageSize);
+                subImages[row][col] = image.getSubImage(row * subImageSize - paddingHeight,
+                        col * subImageSize - paddingWidth, subImageSize, subImageSize);
             }
         }
         return subImages;
@@ -114,45 +152,96 @@ public class ImageProcessor {
      * Calculates the brightness matrix for the sub-images.
      *
      * @param splittedImages The array of sub-images.
+     * @param parallelism The maximal number of threads to use.
      * @return The brightness matrix representing the brightness of each sub-image.
      */
-    private double[][] calculateBrightness(Image[][] splittedImages) {
+    private double[][] calculateBrightness(Image[][] splittedImages, int parallelism) {
         double[][] brightnessArray = new double[splittedImages.length][splittedImages[0].length];
-        int subImageSize = image.getWidth() / resolution;
+        int subImageSize = newWidth / resolution;
+        // computed before any band needs it
+        paddingBrightnessSum = sumPaddingBrightness(subImageSize);
 
-        for (int row = 0; row < splittedImages.length; row++) {
-            for (int col = 0; col < splittedImages[0].length; col++) {
-                double brightnessSum = getBrightnessSum(splittedImages, row, col);
-                brightnessArray[row][col] = brightnessSum /(subImageSize*subImageSize* MAX_RGB_VALUE);
+        RowBands.run(splittedImages.length, parallelism, (from, to) -> {
+            for (int row = from; row < to; row++) {
+                for (int col = 0; col < splittedImages[0].length; col++) {
+                    double brightnessSum = getBrightnessSum(splittedImages, row, col);
+                    brightnessArray[row][col] = toBrightness(brightnessSum, subImageSize);
+                }
             }
-        }
+        });
         return brightnessArray;
     }
 
     /**
      * Calculates the sum of brightness values for a specific sub-image.
+     * A sub-image made only of padding shares a single sum, computed once.
      *
      * @param splittedImages The array of sub-images.
      * @param row The row index of the sub-image.
      * @param col The column index of the sub-image.
      * @return The sum of brightness values for the specified sub-image.
      */
-    private static double getBrightnessSum(Image[][] splittedImages, int row, int col) {
+    private double getBrightnessSum(Image[][] splittedImages, int row, int col) {
         Image image = splittedImages[row][col];
+        if (image.isPadding()) {
+            return paddingBrightnessSum;
+        }
+        return sumBrightness(image);
+    }
+
+    /**
+     * Sums the greyscale values of all pixels of an image, row by row.
+     *
+     * @param image The image to sum.
+     * @return The sum of the greyscale values.
+     */
+    static double sumBrightness(Image image) {
         double brightnessSum = 0;
         int width = image.getWidth();
         int height = image.getHeight();
         for (int i = 0; i < height; i++) {
             for (int j = 0; j < width; j++) {
-                double greyPixel = (((double) image.getPixel(i,j).getRed() * RED_VALUE) +
-                        ((double) image.getPixel(i,j).getGreen() * GREEN_VALUE) +
-                        ((double) image.getPixel(i,j).getBlue() * BLUE_VALUE));
-                brightnessSum += greyPixel;
+                brightnessSum += getGreyPixel(image.getPixelRGB(i, j));
             }
         }
         return brightnessSum;
     }
 
+    /**
+     * Sums the greyscale values of a sub-image made only of padding.
+     *
+     * @param subImageSize The width and height of the sub-image.
+     * @return The sum of the greyscale values, in the same order as any other sub-image.
+     */
+    static double sumPaddingBrightness(int subImageSize) {
+        // any sub-image of an empty image is made only of padding
+        return sumBrightness(new Image(new int[0], 0, 0).getSubImage(0, 0, subImageSize, subImageSize));
+    }
+
+    /**
+     * Calculates the greyscale value of a pixel.
+     *
+     * @param rgb The packed ARGB value of the pixel.
+     * @return The greyscale value, between 0 and 255.
+     */
+    static double getGreyPixel(int rgb) {
+        return (((double) ((rgb >> 16) & 0xFF) * RED_VALUE) +
+                ((double) ((rgb >> 8) & 0xFF) * GREEN_VALUE) +
+                ((double) (rgb & 0xFF) * BLUE_VALUE));
+    }
+
+    /**
+     * Converts the sum of greyscale values of a sub-image to its brightness.
+     *
+     * @param brightnessSum The sum of the greyscale values of the sub-image.
+     * @param subImageSize The width and height of the sub-image.
+     * @return The brightness of the sub-image.
+     */
+    static double toBrightness(double brightnessSum, int subImageSize) {
+        // in double, as the number of pixels of a sub-image of a large image overflows an int
+        return brightnessSum /((double) subImageSize*subImageSize* MAX_RGB_VALUE);
+    }
+
     /**
      * Retrieves the brightness matrix of the processed image.
      *
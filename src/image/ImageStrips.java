@@ -0,0 +1,93 @@
+package image;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * An image file decoded in horizontal strips rather than all at once, so images
+ * larger than the heap can be processed. Each strip is decoded from the file as
+ * a source region of the image.
+ * Decoders of sequential formats such as JPEG and PNG have to scan the data
+ * above a strip before decoding it, so fewer, taller strips decode faster.
+ */
+public class ImageStrips implements Closeable {
+
+    private final ImageInputStream input;
+    private final ImageReader reader;
+    private final int width;
+    private final int height;
+
+    /**
+     * Opens an image file and reads its dimensions, without decoding its pixels.
+     *
+     * @param filename The path of the image file.
+     * @throws IOException if the file cannot be read or is not a supported image.
+     */
+    public ImageStrips(String filename) throws IOException {
+        input = ImageHeader.openStream(filename);
+        try {
+            reader = ImageHeader.findReader(input, filename);
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+        reader.setInput(input, false, true);
+        try {
+            width = reader.getWidth(0);
+            height = reader.getHeight(0);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Decodes a strip of full-width rows of the image.
+     *
+     * @param firstRow The first row of the strip.
+     * @param numOfRows The number of rows of the strip.
+     * @return The pixels of the strip, as an image of its own.
+     * @throws IOException if the file cannot be decoded.
+     */
+    public Image readStrip(int firstRow, int numOfRows) throws IOException {
+        return readStrip(firstRow, numOfRows, 1);
+    }
+
+    /**
+     * Decodes every subsampling-th pixel of every subsampling-th row of a strip,
+     * starting with its first pixel. Decoders skip the pixels in between instead
+     * of decoding them and throwing them away.
+     *
+     * @param firstRow The first row of the strip.
+     * @param numOfRows The number of rows of the strip.
+     * @param subsampling The distance between two decoded pixels, in each direction.
+     * @return The decoded pixels, as an image of its own.
+     * @throws IOException if the file cannot be decoded.
+     */
+    public Image readStrip(int firstRow, int numOfRows, int subsampling) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(0, firstRow, width, numOfRows));
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        BufferedImage strip = reader.read(0, param);
+        return new Image(Image.readPixels(strip), strip.getWidth(), strip.getHeight());
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.dispose();
+        input.close();
+    }
+}
@@ -0,0 +1,144 @@
+package image;
+
+/**
+ * A summed-area table of the greyscale brightness of an image.
+ * The table is built with a single pass over the pixels, after which the
+ * brightness matrix at any power-of-two resolution is read in time proportional
+ * to the number of sub-images, with four table lookups per sub-image.
+ * Greyscale values are kept in fixed point so that every sum is exact; the
+ * padding of the image to power-of-two dimensions is added in closed form,
+ * so it is never stored.
+ * The table can be built on several threads; since the sums are exact, the
+ * result does not depend on the parallelism.
+ */
+public class IntegralImage {
+
+    private static final int MAX_RGB_VALUE = 255;
+    // The greyscale weights 0.2126, 0.7152 and 0.0722, scaled to integers
+    private static final long RED_WEIGHT = 2126;
+    private static final long GREEN_WEIGHT = 7152;
+    private static final long BLUE_WEIGHT = 722;
+    private static final long WEIGHT_SCALE = RED_WEIGHT + GREEN_WEIGHT + BLUE_WEIGHT;
+    private static final long WHITE_GREY = MAX_RGB_VALUE * WEIGHT_SCALE;
+
+    private final long[] table;
+    private final int width;
+    private final int height;
+    private final int newWidth;
+    private final int newHeight;
+    private final int paddingWidth;
+    private final int paddingHeight;
+
+    /**
+     * Builds the summed-area table of the given image.
+     *
+     * @param image The image to build the table for.
+     */
+    public IntegralImage(Image image) {
+        this(image, ImageProcessor.SERIAL);
+    }
+
+    /**
+     * Builds the summed-area table of the given image on up to the given number of threads.
+     *
+     * @param image The image to build the table for.
+     * @param parallelism The maximal number of threads to use; never more than
+     *                    ImageProcessor.PARALLELISM.
+     */
+    public IntegralImage(Image image, int parallelism) {
+        width = image.getWidth();
+        height = image.getHeight();
+        newWidth = ImageProcessor.getNextPowerOfTwo(width);
+        newHeight = ImageProcessor.getNextPowerOfTwo(height);
+        paddingWidth = (newWidth - width) / 2;
+        paddingHeight = (newHeight - height) / 2;
+
+        // table[(i + 1) * (width + 1) + j + 1] holds the sum of all pixels above and left of (i, j)
+        table = new long[(height + 1) * (width + 1)];
+        int stride = width + 1;
+        // first the prefix sum of each row, then the sums down each column
+        RowBands.run(height, parallelism, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                long rowSum = 0;
+                int current = (i + 1) * stride;
+                for (int j = 0; j < width; j++) {
+                    int rgb = image.getPixelRGB(i, j);
+                    rowSum += ((rgb >> 16) & 0xFF) * RED_WEIGHT +
+                            ((rgb >> 8) & 0xFF) * GREEN_WEIGHT +
+                            (rgb & 0xFF) * BLUE_WEIGHT;
+                    table[current + j + 1] = rowSum;
+                }
+            }
+        });
+        RowBands.run(width, parallelism, (from, to) -> {
+            for (int i = 1; i < height; i++) {
+                int above = i * stride;
+                int current = above + stride;
+                for (int j = from + 1; j <= to; j++) {
+                    table[current + j] += table[above + j];
+                }
+            }
+        });
+    }
+
+    /**
+     * Calculates the brightness matrix of the padded image at the given resolution.
+     *
+     * @param resolution The number of sub-images in each row, a power of two.
+     * @return The brightness of each sub-image, between 0 and 1.
+     */
+    public double[][] getBrightness(int resolution) {
+        int subImageSize = newWidth / resolution;
+        int numOfRows = newHeight / subImageSize;
+        double scale = (double) WEIGHT_SCALE * MAX_RGB_VALUE * subImageSize * subImageSize;
+        long pixelsPerSubImage = (long) subImageSize * subImageSize;
+        double[][] brightnessArray = new double[numOfRows][resolution];
+
+        for (int row = 0; row < numOfRows; row++) {
+            int top = clamp(row * subImageSize - paddingHeight, height);
+            int bottom = clamp((row + 1) * subImageSize - paddingHeight, height);
+            for (int col = 0; col < resolution; col++) {
+                int left = clamp(col * subImageSize - paddingWidth, width);
+                int right = clamp((col + 1) * subImageSize - paddingWidth, width);
+                long imagePixels = (long) (bottom - top) * (right - left);
+                long sum = getSum(top, left, bottom, right) +
+                        (pixelsPerSubImage - imagePixels) * WHITE_GREY;
+                brightnessArray[row][col] = sum / scale;
+            }
+        }
+        return brightnessArray;
+    }
+
+    /**
+     * Sums the fixed-point greyscale values of the pixels in a rectangle of the image.
+     *
+     * @param top The first row of the rectangle.
+     * @param left The first column of the rectangle.
+     * @param bottom The row after the last row of the rectangle.
+     * @param right The column after the last column of the rectangle.
+     * @return The sum of the pixels in the rectangle.
+     */
+    private long getSum(int top, int left, int bottom, int right) {
+        int stride = width + 1;
+        return table[bottom * stride + right] - table[top * stride + right] -
+                table[bottom * stride + left] + table[top * stride + left];
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(value, max));
+    }
+
+    /**
+     *getter that gets the width of the image after adding the padding
+     */
+    public int getNewWidth() {
+        return newWidth;
+    }
+
+    /**
+     *getter that gets the height of the image after adding the padding
+     */
+    public int getNewHeight() {
+        return newHeight;
+    }
+}
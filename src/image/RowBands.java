@@ -0,0 +1,77 @@
+package image;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits a range of rows into bands and processes them on a fork-join pool.
+ * Each band is processed by exactly one thread, so work that is deterministic
+ * per row gives the same result whatever the parallelism.
+ * A single pool of ImageProcessor.PARALLELISM threads is shared: it is started
+ * the first time rows are processed in parallel, and its daemon threads serve
+ * every later call. A smaller parallelism splits the rows into fewer bands.
+ */
+class RowBands extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+    // Bands per thread, so that threads finishing early can steal the rest
+    private static final int BANDS_PER_THREAD = 4;
+
+    /**
+     * The work done on a band of rows.
+     */
+    interface Band {
+        /**
+         * Processes the rows from (inclusive) to to (exclusive).
+         */
+        void process(int from, int to);
+    }
+
+    private final Band band;
+    private final int from;
+    private final int to;
+    private final int bandSize;
+
+    private RowBands(Band band, int from, int to, int bandSize) {
+        this.band = band;
+        this.from = from;
+        this.to = to;
+        this.bandSize = bandSize;
+    }
+
+    /**
+     * Processes the rows 0 to rows (exclusive) in bands. With a parallelism of 1
+     * or less, all rows are processed on the calling thread.
+     *
+     * @param rows The number of rows.
+     * @param parallelism The maximal number of threads to use.
+     * @param band The work to do on each band.
+     */
+    static void run(int rows, int parallelism, Band band) {
+        parallelism = Math.min(parallelism, ImageProcessor.PARALLELISM);
+        if (parallelism <= 1 || rows <= 1) {
+            band.process(0, rows);
+            return;
+        }
+        int bandSize = Math.max(1, rows / (parallelism * BANDS_PER_THREAD));
+        Pool.POOL.invoke(new RowBands(band, 0, rows, bandSize));
+    }
+
+    /**
+     * Holds the shared pool, so it is only started when first needed.
+     */
+    private static class Pool {
+        // the threads of a ForkJoinPool are daemons, so the pool never keeps the JVM alive
+        private static final ForkJoinPool POOL = new ForkJoinPool(ImageProcessor.PARALLELISM);
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= bandSize) {
+            band.process(from, to);
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        invokeAll(new RowBands(band, from, middle, bandSize), new RowBands(band, middle, to, bandSize));
+    }
+}
@@ -2,6 +2,8 @@ package image_char_matching;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Inspired by, and partly copied from
@@ -11,16 +13,23 @@ import java.awt.image.BufferedImage;
  * https://dzone.com/articles/ascii-art-generator-java
  * Adaptations made by Dan Nirel and again by Rachel Behar.
  * The class converts characters to a binary "image" (2D array of booleans).
+ * Rendered characters are kept in a {@link GlyphCache} that persists across runs.
  */
 public class CharConverter {
     private static final double X_OFFSET_FACTOR = 0.2;
     private static final double Y_OFFSET_FACTOR = 0.75;
     private static final String FONT_NAME = "Courier New";
+    // bump whenever the rasterization changes, so cached glyphs of the old one are dropped
+    private static final int RENDERING_VERSION = 1;
     /**
      * Default pixel resolution for character images,
      * defining both width and height of the generated square image in pixels.
      */
     public static final int DEFAULT_PIXEL_RESOLUTION = 16;
+    private static final Font FONT = new Font(FONT_NAME, Font.PLAIN, DEFAULT_PIXEL_RESOLUTION);
+    // keyed by the font actually resolved, which is a fallback when FONT_NAME is not installed
+    private static final GlyphCache glyphCache = new GlyphCache(FONT.getFontName(), DEFAULT_PIXEL_RESOLUTION,
+            RENDERING_VERSION + "|" + X_OFFSET_FACTOR + "|" + Y_OFFSET_FACTOR);
 
     /**
      * Renders a given character, according to how it looks in the font specified in the
@@ -28,34 +37,112 @@ public class CharConverter {
      * whose dimension in pixels is specified.
      */
     public static boolean[][] convertToBoolArray(char c) {
-        BufferedImage img = getBufferedImage(c, FONT_NAME, DEFAULT_PIXEL_RESOLUTION);
-        boolean[][] matrix = new boolean[DEFAULT_PIXEL_RESOLUTION][DEFAULT_PIXEL_RESOLUTION];
-        for(int y = 0 ; y < DEFAULT_PIXEL_RESOLUTION ; y++) {
-            for(int x = 0 ; x < DEFAULT_PIXEL_RESOLUTION ; x++) {
-                matrix[y][x] = img.getRGB(x, y) == 0; //is the color black
+        return getGlyph(c).getBitmap();
+    }
+
+    /**
+     * Returns the brightness of a given character: the fraction of the pixels of
+     * its black&white image that are set.
+     *
+     * @param c The character.
+     * @return The brightness of the character, between 0 and 1.
+     */
+    public static double getBrightness(char c) {
+        return getGlyph(c).getBrightness();
+    }
+
+    /**
+     * Renders a whole set of characters in one pass, like convertToBoolArray does
+     * for a single one.
+     *
+     * @param chars The characters to convert.
+     * @return The black&white image of each character, in the order of chars.
+     */
+    public static boolean[][][] convertToBoolArrays(char[] chars) {
+        Glyph[] glyphs = getGlyphs(chars);
+        boolean[][][] bitmaps = new boolean[glyphs.length][][];
+        for (int i = 0; i < glyphs.length; i++) {
+            bitmaps[i] = glyphs[i].getBitmap();
+        }
+        return bitmaps;
+    }
+
+    /**
+     * Gets the glyph of a character from the cache, rendering it if it is missing.
+     */
+    private static Glyph getGlyph(char c) {
+        return getGlyphs(new char[]{c})[0];
+    }
+
+    /**
+     * Gets the glyphs of a set of characters from the cache. All the missing ones
+     * are rendered together on a single canvas and added to the cache at once.
+     *
+     * @param chars The characters.
+     * @return The glyph of each character, in the order of chars.
+     */
+    static Glyph[] getGlyphs(char[] chars) {
+        Glyph[] glyphs = new Glyph[chars.length];
+        StringBuilder missing = new StringBuilder();
+        for (int i = 0; i < chars.length; i++) {
+            glyphs[i] = glyphCache.get(chars[i]);
+            if (glyphs[i] == null && missing.indexOf(String.valueOf(chars[i])) < 0) {
+                missing.append(chars[i]);
+            }
+        }
+        if (missing.length() == 0) {
+            return glyphs;
+        }
+        char[] toRender = missing.toString().toCharArray();
+        boolean[][][] bitmaps = renderBoolArrays(toRender);
+        Map<Character, Glyph> rendered = new HashMap<>();
+        for (int i = 0; i < toRender.length; i++) {
+            rendered.put(toRender[i], new Glyph(bitmaps[i]));
+        }
+        glyphCache.putAll(rendered);
+        for (int i = 0; i < chars.length; i++) {
+            if (glyphs[i] == null) {
+                glyphs[i] = rendered.get(chars[i]);
             }
         }
-        return matrix;
+        return glyphs;
     }
 
     /**
-     * Converts a character to a boolean 2D array representing a square black-and-white image.
-     * The character is rendered in a specified font and resolution. Each array element represents
-     * a pixel, where `true` indicates a black pixel and `false` indicates a white pixel.
+     * Renders characters side by side on one canvas, with a single font, each
+     * clipped to its own square cell, then reads all cells back with one bulk read.
+     * Each cell holds exactly what rendering its character alone on a square
+     * image would.
      *
-     * @param c The character to convert.
-     * @return A 2D boolean array representing the character's image.
+     * @param chars The characters to render.
+     * @return The black&white image of each character.
      */
-    private static BufferedImage getBufferedImage(char c, String fontName, int pixelsPerRow) {
-        String charStr = Character.toString(c);
-        Font font = new Font(fontName, Font.PLAIN, pixelsPerRow);
-        BufferedImage img = new BufferedImage(pixelsPerRow, pixelsPerRow, BufferedImage.TYPE_INT_ARGB);
-        Graphics g = img.getGraphics();
-        g.setFont(font);
-        int xOffset = (int)Math.round(pixelsPerRow *X_OFFSET_FACTOR);
-        int yOffset = (int)Math.round(pixelsPerRow *Y_OFFSET_FACTOR);
-        g.drawString(charStr, xOffset, yOffset);
-        return img;
+    private static boolean[][][] renderBoolArrays(char[] chars) {
+        int size = DEFAULT_PIXEL_RESOLUTION;
+        int atlasWidth = size * chars.length;
+        BufferedImage atlas = new BufferedImage(atlasWidth, size, BufferedImage.TYPE_INT_ARGB);
+        Graphics g = atlas.getGraphics();
+        try {
+            g.setFont(FONT);
+            int xOffset = (int)Math.round(size *X_OFFSET_FACTOR);
+            int yOffset = (int)Math.round(size *Y_OFFSET_FACTOR);
+            for (int i = 0; i < chars.length; i++) {
+                g.setClip(i * size, 0, size, size);
+                g.drawString(Character.toString(chars[i]), i * size + xOffset, yOffset);
+            }
+        } finally {
+            g.dispose();
+        }
+        int[] pixels = atlas.getRGB(0, 0, atlasWidth, size, null, 0, atlasWidth);
+        boolean[][][] bitmaps = new boolean[chars.length][size][size];
+        for (int i = 0; i < chars.length; i++) {
+            for(int y = 0 ; y < size ; y++) {
+                for(int x = 0 ; x < size ; x++) {
+                    bitmaps[i][y][x] = pixels[y * atlasWidth + i * size + x] == 0; //is the color black
+                }
+            }
+        }
+        return bitmaps;
     }
 
 }
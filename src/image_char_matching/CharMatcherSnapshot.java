@@ -0,0 +1,149 @@
+package image_char_matching;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * An immutable copy of a SubImgCharMatcher's charset and normalized brightness
+ * values, as a sorted index for lookups. Since nothing in it ever changes, any
+ * number of threads can look characters up in the same snapshot without locks.
+ * A matcher hands out a new snapshot whenever its charset or brightness values change.
+ */
+public final class CharMatcherSnapshot {
+    // the character chosen when no brightness can be compared
+    private final char fallbackChar;
+    private final boolean empty;
+    // sorted distinct brightness values, each with the lowest char that has it
+    private final double[] sortedBrightness;
+    private final char[] sortedChars;
+    private final int quantizationLevels;
+    // the character matching the center of each quantization bucket
+    private final char[] lookupTable;
+
+    /**
+     * Builds the sorted index of the given brightness values. Characters with
+     * the same brightness collapse to the one with the smallest ASCII value, and
+     * values that are not a number are left out, as they never match.
+     *
+     * @param charset The characters of the matcher, in its order, only read while building.
+     * @param normalizedBrightness The normalized brightness of every character of the
+     *                             charset, only read while building.
+     * @param quantizationLevels The number of quantization buckets, or STRICT.
+     */
+    CharMatcherSnapshot(char[] charset, Map<Character, Double> normalizedBrightness, int quantizationLevels) {
+        this.empty = charset.length == 0;
+        this.fallbackChar = empty ? 0 : charset[0];
+        this.quantizationLevels = quantizationLevels;
+        char[] chars = new char[charset.length];
+        double[] values = new double[charset.length];
+        int size = 0;
+        for (char c : charset) {
+            double value = normalizedBrightness.get(c);
+            if (!Double.isNaN(value)) {
+                chars[size] = c;
+                values[size] = value;
+                size++;
+            }
+        }
+        double[] brightness = Arrays.copyOf(values, size);
+        Arrays.sort(brightness);
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (distinct == 0 || Double.compare(brightness[i], brightness[distinct - 1]) != 0) {
+                brightness[distinct++] = brightness[i];
+            }
+        }
+        // every distinct value goes to the lowest char that has it
+        char[] matchingChars = new char[distinct];
+        Arrays.fill(matchingChars, Character.MAX_VALUE);
+        for (int i = 0; i < size; i++) {
+            int index = Arrays.binarySearch(brightness, 0, distinct, values[i]);
+            if (chars[i] < matchingChars[index]) {
+                matchingChars[index] = chars[i];
+            }
+        }
+        sortedBrightness = Arrays.copyOf(brightness, distinct);
+        sortedChars = matchingChars;
+
+        if (quantizationLevels != SubImgCharMatcher.STRICT && !empty) {
+            char[] table = new char[quantizationLevels];
+            for (int bucket = 0; bucket < quantizationLevels; bucket++) {
+                table[bucket] = getClosestChar((bucket + 0.5) / quantizationLevels);
+            }
+            lookupTable = table;
+        } else {
+            lookupTable = null;
+        }
+    }
+
+    /**
+     * Finds the character in the charset that best matches the given brightness value.
+     * On equal differences, the character with the smaller ASCII value is chosen.
+     * In quantized mode, the match is the one of the brightness's bucket.
+     *
+     * @param brightness The target brightness value to match.
+     * @return The character that best matches the given brightness.
+     */
+    public char getCharByImageBrightness(double brightness) {
+        if (lookupTable != null) {
+            int bucket = (int) (brightness * quantizationLevels);
+            return lookupTable[Math.max(0, Math.min(bucket, quantizationLevels - 1))];
+        }
+        return getClosestChar(brightness);
+    }
+
+    /**
+     * Finds the character whose brightness is closest to the given one, by binary
+     * search on the sorted index.
+     *
+     * @param brightness The target brightness value to match.
+     * @return The closest character, the smaller one on equal differences.
+     */
+    private char getClosestChar(double brightness) {
+        if (sortedBrightness.length == 0 || Double.isNaN(brightness)) {
+            // no brightness can be compared, like in a linear scan
+            if (empty) {
+                throw new IllegalStateException("The charset is empty");
+            }
+            return fallbackChar;
+        }
+        int index = Arrays.binarySearch(sortedBrightness, brightness);
+        if (index >= 0) {
+            return sortedChars[index];
+        }
+        // the closest values are the ones around the insertion point
+        int above = -index - 1;
+        int best = above < sortedBrightness.length ? above : above - 1;
+        double minDiff = Math.abs(sortedBrightness[best] - brightness);
+        // values further away can only tie through rounding, so keep going while they tie
+        for (int i = above - 1; i >= 0; i--) {
+            double diff = Math.abs(sortedBrightness[i] - brightness);
+            if (diff > minDiff) {
+                break;
+            }
+            if (diff < minDiff || sortedChars[i] < sortedChars[best]) {
+                minDiff = diff;
+                best = i;
+            }
+        }
+        for (int i = above + 1; i < sortedBrightness.length; i++) {
+            double diff = Math.abs(sortedBrightness[i] - brightness);
+            if (diff > minDiff) {
+                break;
+            }
+            if (diff < minDiff || sortedChars[i] < sortedChars[best]) {
+                minDiff = diff;
+                best = i;
+            }
+        }
+        return sortedChars[best];
+    }
+
+    /**
+     * Returns the number of quantization buckets, or STRICT in strict mode.
+     * @return The quantization levels.
+     */
+    public int getQuantizationLevels() {
+        return quantizationLevels;
+    }
+}
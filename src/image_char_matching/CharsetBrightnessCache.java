@@ -0,0 +1,134 @@
+package image_char_matching;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, thread-safe cache of the normalized brightness values of charsets.
+ * A charset is identified by its content: a bit set over the char values, so
+ * the order and identity of the array holding it do not matter. When the cache
+ * is full, the least recently used charset is evicted.
+ */
+public class CharsetBrightnessCache {
+
+    private final int capacity;
+    private final LinkedHashMap<BitSet, Entry> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * The brightness values of one charset, in ascending char order.
+     */
+    private static final class Entry {
+        private final char[] chars;
+        private final double[] brightness;
+
+        private Entry(char[] chars, double[] brightness) {
+            this.chars = chars;
+            this.brightness = brightness;
+        }
+    }
+
+    /**
+     * Constructs an empty cache.
+     *
+     * @param capacity The maximal number of charsets kept.
+     */
+    CharsetBrightnessCache(int capacity) {
+        this.capacity = capacity;
+        // access order makes the eldest entry the least recently used one
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BitSet, CharsetBrightnessCache.Entry> eldest) {
+                if (size() > CharsetBrightnessCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Looks up the brightness values of a charset.
+     *
+     * @param charset The charset, in any order.
+     * @return The brightness values aligned with charset, or null if it is not cached.
+     */
+    synchronized double[] get(char[] charset) {
+        Entry entry = entries.get(fingerprint(charset));
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        double[] brightness = new double[charset.length];
+        for (int i = 0; i < charset.length; i++) {
+            brightness[i] = entry.brightness[Arrays.binarySearch(entry.chars, charset[i])];
+        }
+        return brightness;
+    }
+
+    /**
+     * Stores the brightness values of a charset, replacing any previous ones.
+     *
+     * @param charset The charset, in any order.
+     * @param brightness The brightness values aligned with charset.
+     */
+    synchronized void put(char[] charset, double[] brightness) {
+        char[] chars = charset.clone();
+        Arrays.sort(chars);
+        double[] sortedBrightness = new double[chars.length];
+        for (int i = 0; i < charset.length; i++) {
+            sortedBrightness[Arrays.binarySearch(chars, charset[i])] = brightness[i];
+        }
+        entries.put(fingerprint(charset), new Entry(chars, sortedBrightness));
+    }
+
+    /**
+     * Builds the content key of a charset. Printable ASCII chars fit in the
+     * first two words of the bit set, so hashing and comparing keys is cheap.
+     */
+    private static BitSet fingerprint(char[] charset) {
+        BitSet fingerprint = new BitSet(Byte.MAX_VALUE + 1);
+        for (char c : charset) {
+            fingerprint.set(c);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Returns the number of lookups that found their charset.
+     * @return The number of hits.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that did not find their charset.
+     * @return The number of misses.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of charsets evicted to stay within the capacity.
+     * @return The number of evictions.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of charsets currently cached.
+     * @return The size of the cache.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+}
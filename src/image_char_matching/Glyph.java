@@ -0,0 +1,67 @@
+package image_char_matching;
+
+/**
+ * The rendering of a single character: its black-and-white bitmap and its
+ * brightness, the fraction of the bitmap's pixels that are set.
+ */
+final class Glyph {
+    private final boolean[][] bitmap;
+    private final double brightness;
+
+    /**
+     * Constructs a glyph from its bitmap, computing its brightness.
+     *
+     * @param bitmap The square bitmap of the character.
+     */
+    Glyph(boolean[][] bitmap) {
+        this.bitmap = bitmap;
+        double setPixels = 0;
+        double totalPixels = bitmap.length * bitmap[0].length;
+        for (boolean[] row : bitmap) {
+            for (boolean pixel : row) {
+                if (pixel) {
+                    setPixels++;
+                }
+            }
+        }
+        this.brightness = setPixels / totalPixels;
+    }
+
+    /**
+     * Constructs a glyph from its bitmap and its already known brightness.
+     *
+     * @param bitmap The square bitmap of the character.
+     * @param brightness The fraction of the bitmap's pixels that are set.
+     */
+    Glyph(boolean[][] bitmap, double brightness) {
+        this.bitmap = bitmap;
+        this.brightness = brightness;
+    }
+
+    /**
+     * Returns a copy of the glyph's bitmap.
+     * @return The bitmap, true where the character is drawn.
+     */
+    boolean[][] getBitmap() {
+        boolean[][] copy = new boolean[bitmap.length][];
+        for (int y = 0; y < bitmap.length; y++) {
+            copy[y] = bitmap[y].clone();
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the fraction of the bitmap's pixels that are set.
+     * @return The brightness of the glyph.
+     */
+    double getBrightness() {
+        return brightness;
+    }
+
+    /**
+     * Reads a single pixel of the bitmap.
+     */
+    boolean isSet(int y, int x) {
+        return bitmap[y][x];
+    }
+}
@@ -0,0 +1,262 @@
+package image_char_matching;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * A cache of rendered glyphs that persists across runs in a compact binary file,
+ * so characters are only rasterized with AWT the first time they are used.
+ * The file is keyed by the version of its layout, the name of the font face
+ * actually rendered, the pixel resolution, the way glyphs are rasterized and the Java runtime doing the
+ * rendering; a file written with any other key is stale, and is rebuilt from
+ * scratch as characters are rendered again.
+ * The file is private to the user: by default it is in the user's cache
+ * directory, $XDG_CACHE_HOME or else ~/.cache.
+ * <p>
+ * File layout: the magic number, the key as a length-prefixed UTF-8 string, then
+ * for each glyph, up to the end of the file, its char, its brightness as a
+ * double and its bitmap packed into bits, row by row. Newly rendered glyphs are
+ * appended to a file of the same key, so the file is only rewritten whole when
+ * it is missing or stale; an incomplete last glyph, from an interrupted write,
+ * is ignored. Since another run, with another key, may have replaced the file
+ * since it was loaded, its key is read again, under a lock, before appending.
+ */
+class GlyphCache {
+    /**
+     * The system property naming the cache file.
+     */
+    static final String FILE_PROPERTY = "ascii_art.glyphCache";
+    private static final String CACHE_HOME_VARIABLE = "XDG_CACHE_HOME";
+    private static final String DEFAULT_CACHE_HOME = ".cache";
+    private static final String DEFAULT_DIRECTORY = "ascii_art";
+    private static final String DEFAULT_FILE_NAME = "glyphs.bin";
+    private static final int MAGIC = 0x41534347; // "ASCG"
+    // bump whenever the file layout changes
+    private static final int FORMAT_VERSION = 3;
+
+    private final Path file;
+    private final String key;
+    private final int pixelResolution;
+    private final Map<Character, Glyph> glyphs = new HashMap<>();
+    // whether the cache file exists with this key, so glyphs can be appended to it
+    private boolean fileMatches;
+
+    /**
+     * Constructs a cache for glyphs of the given font and resolution, loading the
+     * cache file if it exists and matches them.
+     *
+     * @param fontName The name of the font glyphs are rendered in.
+     * @param pixelResolution The width and height of the glyph bitmaps.
+     * @param rendering The version and parameters of the rasterization, so that
+     *                  glyphs rendered differently are never served.
+     */
+    GlyphCache(String fontName, int pixelResolution, String rendering) {
+        String file = System.getProperty(FILE_PROPERTY);
+        this.file = file != null ? Paths.get(file) : getDefaultFile();
+        this.key = FORMAT_VERSION + "|" + fontName + "|" + pixelResolution + "|" + rendering + "|" +
+                System.getProperty("java.vendor") + "|" + System.getProperty("java.runtime.version") +
+                "|" + System.getProperty("os.name");
+        this.pixelResolution = pixelResolution;
+        load();
+    }
+
+    /**
+     * Returns the cache file in the user's cache directory.
+     */
+    private static Path getDefaultFile() {
+        String cacheHome = System.getenv(CACHE_HOME_VARIABLE);
+        Path directory = cacheHome != null && !cacheHome.isEmpty() ? Paths.get(cacheHome) :
+                Paths.get(System.getProperty("user.home"), DEFAULT_CACHE_HOME);
+        return directory.resolve(DEFAULT_DIRECTORY).resolve(DEFAULT_FILE_NAME);
+    }
+
+    /**
+     * Looks up a cached glyph.
+     *
+     * @param c The character.
+     * @return Its glyph, or null if it was never rendered.
+     */
+    synchronized Glyph get(char c) {
+        return glyphs.get(c);
+    }
+
+    /**
+     * Adds rendered glyphs to the cache and writes them to the cache file,
+     * appending them to it if it matches this cache.
+     *
+     * @param newGlyphs The glyphs, by character.
+     */
+    synchronized void putAll(Map<Character, Glyph> newGlyphs) {
+        glyphs.putAll(newGlyphs);
+        if (!fileMatches || !append(newGlyphs)) {
+            save();
+        }
+    }
+
+    /**
+     * Reads the cache file through a memory mapping. A missing, stale or
+     * unreadable file leaves the cache empty.
+     */
+    private void load() {
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC) {
+                return;
+            }
+            byte[] storedKey = new byte[buffer.getShort()];
+            buffer.get(storedKey);
+            if (!key.equals(new String(storedKey, StandardCharsets.UTF_8))) {
+                return;
+            }
+            byte[] bits = new byte[bitmapBytes()];
+            Map<Character, Glyph> loaded = new HashMap<>();
+            while (buffer.remaining() >= entryBytes()) {
+                char c = buffer.getChar();
+                double brightness = buffer.getDouble();
+                buffer.get(bits);
+                loaded.put(c, new Glyph(unpack(bits), brightness));
+            }
+            glyphs.putAll(loaded);
+            fileMatches = true;
+        } catch (IOException | RuntimeException e) {
+            Logger.getGlobal().fine(String.format("Ignoring glyph cache \"%s\": %s", file, e));
+        }
+    }
+
+    /**
+     * Appends glyphs to the end of the cache file, if it still has this cache's
+     * key. The key is checked and the glyphs written under an exclusive lock,
+     * so no other run appends in between.
+     *
+     * @param newGlyphs The glyphs, by character.
+     * @return Whether the glyphs were appended; if not, the file is to be rewritten.
+     */
+    private boolean append(Map<Character, Glyph> newGlyphs) {
+        ByteBuffer buffer = ByteBuffer.allocate(newGlyphs.size() * entryBytes());
+        putEntries(buffer, newGlyphs);
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileLock lock = channel.lock()) {
+            if (!hasKey(channel)) {
+                fileMatches = false;
+                return false;
+            }
+            long position = channel.size();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            return true;
+        } catch (IOException e) {
+            fileMatches = false;
+            Logger.getGlobal().fine(String.format("Failed to append to glyph cache \"%s\": %s", file, e));
+            return false;
+        }
+    }
+
+    /**
+     * Reads the magic number and key at the start of an open cache file.
+     *
+     * @return Whether they are the ones of this cache.
+     */
+    private boolean hasKey(FileChannel channel) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES + Short.BYTES + keyBytes.length);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                return false;
+            }
+        }
+        header.flip();
+        if (header.getInt() != MAGIC || header.getShort() != keyBytes.length) {
+            return false;
+        }
+        byte[] storedKey = new byte[keyBytes.length];
+        header.get(storedKey);
+        return Arrays.equals(keyBytes, storedKey);
+    }
+
+    /**
+     * Writes all cached glyphs to a temporary file, then moves it over the cache file.
+     */
+    private void save() {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + Short.BYTES + keyBytes.length +
+                glyphs.size() * entryBytes());
+        buffer.putInt(MAGIC).putShort((short) keyBytes.length).put(keyBytes);
+        putEntries(buffer, glyphs);
+        buffer.flip();
+        try {
+            Path directory = file.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, DEFAULT_FILE_NAME, null);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            fileMatches = true;
+        } catch (IOException e) {
+            Logger.getGlobal().fine(String.format("Failed to write glyph cache \"%s\": %s", file, e));
+        }
+    }
+
+    private void putEntries(ByteBuffer buffer, Map<Character, Glyph> entries) {
+        for (Map.Entry<Character, Glyph> entry : entries.entrySet()) {
+            buffer.putChar(entry.getKey()).putDouble(entry.getValue().getBrightness());
+            buffer.put(pack(entry.getValue()));
+        }
+    }
+
+    private int entryBytes() {
+        return Character.BYTES + Double.BYTES + bitmapBytes();
+    }
+
+    private int bitmapBytes() {
+        return (pixelResolution * pixelResolution + Byte.SIZE - 1) / Byte.SIZE;
+    }
+
+    private byte[] pack(Glyph glyph) {
+        byte[] bits = new byte[bitmapBytes()];
+        for (int y = 0; y < pixelResolution; y++) {
+            for (int x = 0; x < pixelResolution; x++) {
+                if (glyph.isSet(y, x)) {
+                    int bit = y * pixelResolution + x;
+                    bits[bit / Byte.SIZE] |= 1 << (bit % Byte.SIZE);
+                }
+            }
+        }
+        return bits;
+    }
+
+    private boolean[][] unpack(byte[] bits) {
+        boolean[][] bitmap = new boolean[pixelResolution][pixelResolution];
+        for (int y = 0; y < pixelResolution; y++) {
+            for (int x = 0; x < pixelResolution; x++) {
+                int bit = y * pixelResolution + x;
+                bitmap[y][x] = (bits[bit / Byte.SIZE] & (1 << (bit % Byte.SIZE))) != 0;
+            }
+        }
+        return bitmap;
+    }
+}
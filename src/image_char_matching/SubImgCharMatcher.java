@@ -5,32 +5,82 @@ import java.util.*;
 
 /**
  * A class for matching ASCII characters to image brightness values.
+ * Lookups use a sorted index of the normalized brightness values, held in an
+ * immutable CharMatcherSnapshot. The matcher itself is changed by a single
+ * thread, which builds a new snapshot at the end of every change and publishes
+ * it, while readers on any number of threads only ever read the published one.
+ * A published snapshot holds normalized values only: characters added since the
+ * last initializeBrightnessMap are left out of it until then.
+ * <p>
+ * The raw brightness values of the charset are kept in a sorted multiset, so the
+ * minimum and maximum are known at all times. Characters added or removed in a
+ * batch are normalized together, once, and the whole charset is renormalized only
+ * when the minimum or maximum has actually changed.
+ * <p>
+ * In quantized mode, brightness values between 0 and 1 are split into a fixed
+ * number of equal buckets, and every bucket is mapped in advance to the
+ * character matching its center, so a lookup is a single array access. A
+ * brightness anywhere in a bucket is at most 1/(2 * levels) from the center, so
+ * the brightness of the chosen character is at most 1/levels further from the
+ * requested brightness than the exact match is (about 0.0039 for 256 levels).
+ * Strict mode, the default, always uses the exact match. Quantized mode is set
+ * with setQuantizationLevels, or for every matcher with the
+ * QUANTIZATION_LEVELS_PROPERTY system property.
  */
 public class SubImgCharMatcher {
+    /**
+     * Quantization levels that select strict mode, where every lookup is exact.
+     */
+    public static final int STRICT = 0;
+    /**
+     * Suggested quantization levels, one bucket per 8-bit brightness value.
+     */
+    public static final int DEFAULT_QUANTIZATION_LEVELS = 256;
+    /**
+     * The system property setting the quantization levels new matchers start
+     * with, e.g. DEFAULT_QUANTIZATION_LEVELS; STRICT if it is not set.
+     */
+    public static final String QUANTIZATION_LEVELS_PROPERTY = "ascii_art.quantizationLevels";
+
     private char[] charset;
     private final Map<Character, Double> rawBrightnessMap = new HashMap<>();
     private final HashMap<Character, Double> normalizedBrightnessMap;
-    private static final HashMap<char[], Double[]> charsetBrightnessMap = new HashMap<>();
+    private static final int CHARSET_CACHE_CAPACITY = 64;
+    private static final CharsetBrightnessCache charsetBrightnessCache =
+            new CharsetBrightnessCache(CHARSET_CACHE_CAPACITY);
     private final Set<Character> modifiedChars = new HashSet<>();
-    private double minBrightness = Double.MAX_VALUE;
-    private double maxBrightness = Double.MIN_VALUE;
-    private boolean needToNormalize;
+    // the raw brightness values of the charset, each with the number of chars that have it
+    private final TreeMap<Double, Integer> brightnessCounts = new TreeMap<>();
+    // the minimum and maximum the normalized values were last computed with
+    private double normalizedMin = Double.NaN;
+    private double normalizedMax = Double.NaN;
+    private int quantizationLevels = STRICT;
+    // published copy-on-write by the changing thread: replaced, never changed
+    private volatile CharMatcherSnapshot snapshot;
 
     /**
-     * Constructor to initialize the SubImgCharMatcher with a given character set.
+     * Constructor to initialize the SubImgCharMatcher with a given character set,
+     * in the mode of the QUANTIZATION_LEVELS_PROPERTY system property.
      *
      * @param charset The character set to use for matching.
+     * @throws IllegalArgumentException if the property is negative.
      */
     public SubImgCharMatcher(char[] charset) {
+        quantizationLevels = checkQuantizationLevels(Integer.getInteger(QUANTIZATION_LEVELS_PROPERTY, STRICT));
         Arrays.sort(charset);
         this.charset = charset;
         this.normalizedBrightnessMap = new HashMap<>();
         
-        for (char c : charset) {
-            calculateBrightness(c);
+        calculateBrightness(charset);
+        for (int i = 0; i < charset.length; i++) {
+            // a character given twice is still a single character of the charset
+            if (i == 0 || charset[i] != charset[i - 1]) {
+                countBrightness(rawBrightnessMap.get(charset[i]));
+            }
         }
-        Double[] normalizedBrightness = normalizeBrightness(); // normalizes these brightness values
-        charsetBrightnessMap.put(charset, normalizedBrightness);
+        double[] normalizedBrightness = normalizeBrightness(); // normalizes these brightness values
+        charsetBrightnessCache.put(charset, normalizedBrightness);
+        publishSnapshot();
     }
 
     /**
@@ -39,62 +89,53 @@ public class SubImgCharMatcher {
      */
     public void initializeBrightnessMap() {
         //check if we don't already have the charset
-        char[] matchingCharset = null;
-        boolean foundMatchingCharset = false;
-        for (char[] storedCharset : charsetBrightnessMap.keySet()) {// Iterate over each charset
-            Arrays.sort(storedCharset);
-            if (Arrays.equals(storedCharset, charset)) {
-                foundMatchingCharset = true;
-                matchingCharset = storedCharset;
-                break; // No need to continue searching
-            }
-        }
+        double[] storedBrightness = charsetBrightnessCache.get(charset);
         //if already have the set , enter it brightnessMap (normalized value)
-        if (foundMatchingCharset) {
-            // fill brightnessMap with the normalized brightness values from the storedCharset
+        if (storedBrightness != null) {
+            // fill brightnessMap with the normalized brightness values of the stored charset
             for (int i = 0; i < charset.length; i++) {
-                normalizedBrightnessMap.put(charset[i], charsetBrightnessMap.get(matchingCharset)[i]);
+                normalizedBrightnessMap.put(charset[i], storedBrightness[i]);
+            }
+            // the stored values were normalized with this charset's own minimum and maximum
+            if (!brightnessCounts.isEmpty()) {
+                normalizedMin = brightnessCounts.firstKey();
+                normalizedMax = brightnessCounts.lastKey();
             }
+            modifiedChars.clear();
+            publishSnapshot();
             return; // Exit the method since we've already filled brightnessMap
         }
 
         //there's no matching charset found
         // we have removed/added the min or the max
         ifNoMatchingCharset();
+        publishSnapshot();
     }
 
     /**
-     * Optimizes normalization of brightness values to reduce time complexity. Handles three cases:
-     * 1. Adjusts for changes in min/max values when elements are added or removed.
-     * 2. Skips recalculation if no characters have been modified.
-     * 3. Recalculates for newly added or modified characters without redoing all values.
-     * Updates `charsetBrightnessMap` with the current charset's normalized brightness values,
-     * avoiding unnecessary recalculations.
+     * Normalizes the brightness values that are out of date. Handles two cases:
+     * 1. The minimum or maximum changed since the last normalization, so all values are redone.
+     * 2. Otherwise, only the characters added since then are normalized.
+     * Updates `charsetBrightnessCache` with the current charset's normalized brightness values.
      */
     private void ifNoMatchingCharset() {
-        if(needToNormalize){
-            Double[] normalizedBrightness = normalizeBrightness();
-            charsetBrightnessMap.put(Arrays.copyOf(charset, charset.length), normalizedBrightness);
-            needToNormalize = false;
-        }else if(modifiedChars.isEmpty()){
-            Double[] brightnessArray = new Double[charset.length];
-            for (int i = 0; i<charset.length; i++){
-                brightnessArray[i] = normalizedBrightnessMap.get(charset[i]);
-            }
-            charsetBrightnessMap.put(Arrays.copyOf(charset, charset.length), brightnessArray);
-        }else {
+        double[] brightnessArray;
+        if (!brightnessCounts.isEmpty() && (brightnessCounts.firstKey() != normalizedMin ||
+                brightnessCounts.lastKey() != normalizedMax)) {
+            brightnessArray = normalizeBrightness();
+        } else {
             for (char c : modifiedChars) {
-                double brightness = calculateBrightness(c);
-                double normalizedBrightness = (brightness - minBrightness) / (maxBrightness - minBrightness);
+                double brightness = rawBrightnessMap.get(c);
+                double normalizedBrightness = (brightness - normalizedMin) / (normalizedMax - normalizedMin);
                 normalizedBrightnessMap.put(c, normalizedBrightness);
             }
-            Double[] brightnessArray = new Double[charset.length];
+            brightnessArray = new double[charset.length];
             for (int i = 0; i < charset.length; i++) {
                 brightnessArray[i] = normalizedBrightnessMap.get(charset[i]);
             }
-            charsetBrightnessMap.put(Arrays.copyOf(charset, charset.length), brightnessArray);
-            modifiedChars.clear();
         }
+        modifiedChars.clear();
+        charsetBrightnessCache.put(charset, brightnessArray);
     }
 
 
@@ -108,38 +149,44 @@ public class SubImgCharMatcher {
         if(rawBrightnessMap.containsKey(c)){
             return rawBrightnessMap.get(c);
         }
-        // Assume CharConverter.convertToBoolArray(c) converts character c to 16x16 boolean array
-        boolean[][] boolArray = CharConverter.convertToBoolArray(c);
-        double whitePixels = 0;
-        double totalPixels = boolArray.length * boolArray[0].length;
-
-        for (boolean[] row : boolArray) {
-            for (boolean pixel : row) {
-                if (pixel) {
-                    whitePixels++;
-                }
-            }
-        }
-        double brightness = whitePixels /totalPixels;
+        double brightness = CharConverter.getBrightness(c);
         rawBrightnessMap.put(c, brightness);
         return brightness;
 
     }
 
     /**
-     * Normalizes the brightness values of characters in the charset.
+     * Calculates the brightness values of several characters at once, rendering
+     * all the ones not known yet in a single batch.
+     *
+     * @param chars The characters for which to calculate brightness.
      */
-    private Double[] normalizeBrightness() {
-        for (char c : charset) {
-            double brightness = rawBrightnessMap.get(c);
-            if(brightness > maxBrightness) {
-                maxBrightness = brightness;
-            } if (brightness < minBrightness) {
-                minBrightness = brightness;
+    private void calculateBrightness(char[] chars) {
+        char[] unknown = new char[chars.length];
+        int size = 0;
+        for (char c : chars) {
+            if (!rawBrightnessMap.containsKey(c)) {
+                unknown[size++] = c;
             }
         }
+        if (size == 0) {
+            return;
+        }
+        unknown = Arrays.copyOf(unknown, size);
+        Glyph[] glyphs = CharConverter.getGlyphs(unknown);
+        for (int i = 0; i < unknown.length; i++) {
+            rawBrightnessMap.putIfAbsent(unknown[i], glyphs[i].getBrightness());
+        }
+    }
+
+    /**
+     * Normalizes the brightness values of characters in the charset.
+     */
+    private double[] normalizeBrightness() {
         // Find min and max brightness values
-        Double[] normalizedBrightness = new Double[charset.length];
+        double minBrightness = brightnessCounts.isEmpty() ? Double.NaN : brightnessCounts.firstKey();
+        double maxBrightness = brightnessCounts.isEmpty() ? Double.NaN : brightnessCounts.lastKey();
+        double[] normalizedBrightness = new double[charset.length];
         // Normalize brightness values
         for (int i = 0; i< charset.length; i++) {
             char c = charset[i];
@@ -149,36 +196,102 @@ public class SubImgCharMatcher {
             normalizedBrightness[i] = normalized;
             normalizedBrightnessMap.put(c, normalized);
         }
-
+        normalizedMin = minBrightness;
+        normalizedMax = maxBrightness;
         return normalizedBrightness;
     }
 
     /**
      * Finds the character in the charset that best matches the given brightness value.
+     * On equal differences, the character with the smaller ASCII value is chosen.
+     * In quantized mode, the match is the one of the brightness's bucket.
      *
      * @param brightness The target brightness value to match.
      * @return The character that best matches the given brightness.
      */
     public char getCharByImageBrightness(double brightness) {
-        char closestChar = charset[0];
-        double minDiff = Double.MAX_VALUE;
+        return getSnapshot().getCharByImageBrightness(brightness);
+    }
 
-        // Find the closest character to the given brightness
-        for (char c : charset) {
-            double charBrightness = normalizedBrightnessMap.get(c);
-            double diff = Math.abs(charBrightness - brightness);
-
-            // Update the closest character if found
-            if (diff < minDiff) {
-                minDiff = diff;
-                closestChar = c;
-            } else if (diff == minDiff && c < closestChar) {
-                // If diff is the same, choose character with smaller ASCII value
-                closestChar = c;
+    /**
+     * Returns the immutable snapshot of the charset and brightness values as of
+     * the last change, which any number of threads may use for lookups. It is
+     * only read here, never built; changes never affect the snapshots already
+     * handed out. Call initializeBrightnessMap after adding characters, so the
+     * snapshot holds them too.
+     *
+     * @return The snapshot of the current state of the matcher.
+     */
+    public CharMatcherSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Builds the snapshot of the current state, on the changing thread, and
+     * publishes it. Characters whose brightness is not normalized yet are left out.
+     */
+    private void publishSnapshot() {
+        char[] normalizedChars = charset;
+        if (!modifiedChars.isEmpty()) {
+            normalizedChars = new char[charset.length];
+            int size = 0;
+            for (char c : charset) {
+                if (!modifiedChars.contains(c)) {
+                    normalizedChars[size++] = c;
+                }
+            }
+            normalizedChars = Arrays.copyOf(normalizedChars, size);
+        }
+        snapshot = new CharMatcherSnapshot(normalizedChars, normalizedBrightnessMap, quantizationLevels);
+    }
+
+    /**
+     * Sets how brightness values are quantized for lookups.
+     *
+     * @param levels The number of buckets between 0 and 1, or STRICT for exact lookups.
+     * @throws IllegalArgumentException if levels is negative.
+     */
+    public void setQuantizationLevels(int levels) {
+        quantizationLevels = checkQuantizationLevels(levels);
+        publishSnapshot();
+    }
+
+    private static int checkQuantizationLevels(int levels) {
+        if (levels < 0) {
+            throw new IllegalArgumentException("Quantization levels must not be negative: " + levels);
+        }
+        return levels;
+    }
+
+    /**
+     * Returns the number of quantization buckets, or STRICT in strict mode.
+     * @return The quantization levels.
+     */
+    public int getQuantizationLevels() {
+        return quantizationLevels;
+    }
+
+    /**
+     * Adds several characters to the charset map, calculating the brightness
+     * values of all of them in a single batch and growing the charset once.
+     *
+     * @param chars The characters to add.
+     */
+    public void addChars(char[] chars) {
+        calculateBrightness(chars);
+        char[] newCharset = Arrays.copyOf(charset, charset.length + chars.length);
+        int size = charset.length;
+        for (char c : chars) {
+            if (insertChar(c, rawBrightnessMap.get(c))) {
+                newCharset[size++] = c;
             }
         }
-        return closestChar;
+        if (size != charset.length) {
+            charset = Arrays.copyOf(newCharset, size);
+            publishSnapshot();
+        }
     }
+
     /**
      * Adds a character to the charset map and calculates its brightness value.
      *
@@ -186,52 +299,89 @@ public class SubImgCharMatcher {
      */
     public void addChar(char c) {
         // Check if the character is already in the charset
-        if (!normalizedBrightnessMap.containsKey(c)) {
-            double brightness = calculateBrightness(c);
-            if (brightness < minBrightness) {
-                minBrightness = brightness;
-                needToNormalize = true;
-            } if (brightness > maxBrightness) {
-                maxBrightness = brightness;
-                needToNormalize = true;
-            }
+        if (!normalizedBrightnessMap.containsKey(c) && insertChar(c, calculateBrightness(c))) {
             char[] newCharset = Arrays.copyOf(charset, charset.length + 1);// Resize the charset
             newCharset[newCharset.length - 1] = c; // Add the character to the end of the new array
             charset = newCharset;  // Update the charset reference to point to the new array
-            normalizedBrightnessMap.put(c, brightness);
-            modifiedChars.add(c);
+            publishSnapshot();
         }
     }
 
     /**
-     * Removes a character from the charset.
+     * Records a new character of the charset, until it is normalized. The caller
+     * adds it to the charset array.
      *
-     * @param c The character to remove.
+     * @return Whether the character was new.
      */
-    public void removeChar(char c) {
-        double currBrightness = calculateBrightness(c);
-        if(currBrightness==minBrightness){
-            minBrightness = Double.MAX_VALUE;
-            needToNormalize=true;
-        } if(currBrightness==maxBrightness){
-            maxBrightness=Double.MIN_VALUE;
-            needToNormalize=true;
-        }
-        normalizedBrightnessMap.remove(c);
-        // Remove the character from the charset array
-        int index = -1;
-        for (int i = 0; i < charset.length; i++) {
-            if (charset[i] == c) {
-                index = i;
-                break;
+    private boolean insertChar(char c, double brightness) {
+        if (normalizedBrightnessMap.containsKey(c)) {
+            return false;
+        }
+        countBrightness(brightness);
+        normalizedBrightnessMap.put(c, brightness);
+        modifiedChars.add(c);
+        return true;
+    }
+
+    /**
+     * Removes several characters from the charset, shrinking it once.
+     *
+     * @param chars The characters to remove.
+     */
+    public void removeChars(char[] chars) {
+        boolean removed = false;
+        for (char c : chars) {
+            if (normalizedBrightnessMap.remove(c) != null) {
+                uncountBrightness(rawBrightnessMap.get(c));
+                modifiedChars.remove(c);
+                removed = true;
             }
         }
-        if (index != -1) {
-            char[] newCharset = new char[charset.length - 1];
-            System.arraycopy(charset, 0, newCharset, 0, index);
-            System.arraycopy(charset, index + 1, newCharset, index, charset.length - index - 1);
-            charset = newCharset;
+        if (!removed) {
+            return;
+        }
+        // keep the remaining characters in their order
+        char[] newCharset = new char[charset.length];
+        int size = 0;
+        for (char c : charset) {
+            if (normalizedBrightnessMap.containsKey(c)) {
+                newCharset[size++] = c;
+            }
         }
+        charset = Arrays.copyOf(newCharset, size);
+        publishSnapshot();
+    }
+
+    /**
+     * Removes a character from the charset.
+     *
+     * @param c The character to remove.
+     */
+    public void removeChar(char c) {
+        removeChars(new char[]{c});
+    }
+
+    /**
+     * Adds a raw brightness value to the sorted multiset of the charset's values.
+     */
+    private void countBrightness(double brightness) {
+        brightnessCounts.merge(brightness, 1, Integer::sum);
+    }
+
+    /**
+     * Removes one occurrence of a raw brightness value from the sorted multiset.
+     */
+    private void uncountBrightness(double brightness) {
+        brightnessCounts.computeIfPresent(brightness, (value, count) -> count == 1 ? null : count - 1);
+    }
+
+    /**
+     * Returns the cache of normalized brightness values shared by all matchers,
+     * for its hit and miss counters.
+     * @return The shared charset brightness cache.
+     */
+    public static CharsetBrightnessCache getCharsetBrightnessCache() {
+        return charsetBrightnessCache;
     }
 
     /**
@@ -0,0 +1,105 @@
+package oh_tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ascii_art.BatchConverter;
+
+public class BatchConverterTests {
+    private static final int IMAGES = 6;
+    private static final int WIDTH = 1200;
+    private static final int HEIGHT = 900;
+    private static final int RESOLUTION = 64;
+    // the bytes of a decoded image, as BrightnessSource counts them
+    private static final long DECODED_BYTES = (long) WIDTH * HEIGHT * 8;
+    private static final String CHARSET = "0123456789@#. ";
+
+    private Path directory;
+    private List<Path> inputs;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("batch");
+        inputs = new ArrayList<>();
+        for (int i = 0; i < IMAGES; i++) {
+            File png = BrightnessRowStreamTests.writePng(ImageProcessorTests.randomImage(WIDTH + i, HEIGHT));
+            Path input = directory.resolve("image" + i + ".png");
+            Files.move(png.toPath(), input);
+            inputs.add(input);
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    /**
+     * Several large images share a decode budget that holds fewer than two of
+     * them at once: the images decoded whole never reserve more than the budget
+     * together, and the ones left out are decoded strip by strip, to the same
+     * ASCII art as with a budget that holds them all.
+     */
+    @Test
+    public void smallBudgetBoundsTheImagesDecodedWhole() throws IOException, InterruptedException {
+        long budget = 3 * DECODED_BYTES;
+        List<byte[]> expected = convert(Long.MAX_VALUE / 2, "large");
+        BatchConverter converter = new BatchConverter(CHARSET.toCharArray(), RESOLUTION, "html",
+                Files.createDirectory(directory.resolve("small")), budget);
+        assertEquals(0, converter.convertAll(inputs));
+        assertTrue("at most " + budget + " bytes, got " + converter.getPeakDecodeBytes(),
+                converter.getPeakDecodeBytes() <= budget);
+        assertOutputsEqual(expected, directory.resolve("small"));
+    }
+
+    /**
+     * With a budget too small for any image, every image is decoded strip by
+     * strip, and nothing is decoded whole.
+     */
+    @Test
+    public void tinyBudgetDecodesEveryImageInStrips() throws IOException, InterruptedException {
+        List<byte[]> expected = convert(Long.MAX_VALUE / 2, "large");
+        BatchConverter converter = new BatchConverter(CHARSET.toCharArray(), RESOLUTION, "html",
+                Files.createDirectory(directory.resolve("tiny")), DECODED_BYTES);
+        assertEquals(0, converter.convertAll(inputs));
+        assertEquals(0, converter.getPeakDecodeBytes());
+        assertOutputsEqual(expected, directory.resolve("tiny"));
+    }
+
+    private List<byte[]> convert(long budget, String name) throws IOException, InterruptedException {
+        Path output = Files.createDirectory(directory.resolve(name));
+        BatchConverter converter = new BatchConverter(CHARSET.toCharArray(), RESOLUTION, "html", output, budget);
+        assertEquals(0, converter.convertAll(inputs));
+        assertTrue(converter.getPeakDecodeBytes() > 0);
+        return readOutputs(output);
+    }
+
+    private void assertOutputsEqual(List<byte[]> expected, Path output) throws IOException {
+        List<byte[]> got = readOutputs(output);
+        for (int i = 0; i < IMAGES; i++) {
+            assertArrayEquals(inputs.get(i).toString(), expected.get(i), got.get(i));
+        }
+    }
+
+    private List<byte[]> readOutputs(Path output) throws IOException {
+        List<byte[]> outputs = new ArrayList<>();
+        for (Path input : inputs) {
+            outputs.add(Files.readAllBytes(output.resolve(input.getFileName() + ".html")));
+        }
+        return outputs;
+    }
+}
@@ -0,0 +1,142 @@
+package oh_tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import javax.imageio.ImageIO;
+import org.junit.Test;
+import ascii_art.AsciiArtAlgorithm;
+import ascii_output.AsciiRowOutput;
+import image.BrightnessRowStream;
+import image.Image;
+import image.ImageProcessor;
+import image.ImageStrips;
+import image_char_matching.SubImgCharMatcher;
+
+public class BrightnessRowStreamTests {
+    private static final int[][] SIZES = {{640, 480}, {100, 37}, {37, 100}, {129, 129}};
+
+    /**
+     * The rows streamed from an image in memory are the rows of the brightness
+     * matrix of ImageProcessor, to the bit.
+     */
+    @Test
+    public void streamedRowsMatchImageProcessor() throws IOException {
+        for (int[] size : SIZES) {
+            Image image = ImageProcessorTests.randomImage(size[0], size[1]);
+            for (int resolution : ImageProcessorTests.resolutions(
+                    ImageProcessorTests.nextPowerOfTwo(size[0]), ImageProcessorTests.nextPowerOfTwo(size[1]))) {
+                double[][] expected = new ImageProcessor(image, resolution).getBrightness();
+                try (BrightnessRowStream rows = new BrightnessRowStream(image, resolution)) {
+                    assertRowsEqual(expected, rows);
+                }
+            }
+        }
+    }
+
+    /**
+     * Streaming the rows of ASCII art to a row output draws the same chars as
+     * converting the whole brightness matrix.
+     */
+    @Test
+    public void streamedAsciiArtMatchesWholeConversion() {
+        SubImgCharMatcher charMatcher = new SubImgCharMatcher(SubImgCharMatcherTests.allChars().toCharArray());
+        for (int[] size : SIZES) {
+            Image image = ImageProcessorTests.randomImage(size[0], size[1]);
+            for (int resolution : new int[]{2, 16, 64}) {
+                char[][] expected = new AsciiArtAlgorithm(charMatcher,
+                        new ImageProcessor(image, resolution)).run();
+                RowCollector collector = new RowCollector();
+                new AsciiArtAlgorithm(charMatcher, new BrightnessRowStream(image, resolution)).run(collector);
+                assertEquals(resolution, collector.numOfColumns);
+                assertArrayEquals(expected, collector.rows.toArray(new char[0][]));
+            }
+        }
+    }
+
+    /**
+     * Decoding an image file strip by strip, whatever the height of the strips,
+     * gives the same brightness, to the bit, as decoding it whole.
+     */
+    @Test
+    public void stripDecodeMatchesWholeDecode() throws IOException {
+        for (int[] size : SIZES) {
+            File file = writePng(ImageProcessorTests.randomImage(size[0], size[1]));
+            try {
+                Image whole = new Image(file.getPath());
+                int[] stripPixels = {7 * size[0], size[0] * size[1] / 3,
+                        BrightnessRowStream.DEFAULT_STRIP_PIXELS};
+                for (int resolution : ImageProcessorTests.resolutions(
+                        ImageProcessorTests.nextPowerOfTwo(size[0]), ImageProcessorTests.nextPowerOfTwo(size[1]))) {
+                    double[][] expected = new ImageProcessor(whole, resolution).getBrightness();
+                    for (int maxStripPixels : stripPixels) {
+                        try (BrightnessRowStream rows = new BrightnessRowStream(
+                                new ImageStrips(file.getPath()), resolution, maxStripPixels)) {
+                            assertRowsEqual(expected, rows);
+                        }
+                    }
+                    try (BrightnessRowStream rows = new BrightnessRowStream(
+                            new ImageStrips(file.getPath()), resolution, 5 * size[0])) {
+                        ImageProcessorTests.assertBrightnessEquals(expected,
+                                new ImageProcessor(rows).getBrightness());
+                    }
+                }
+            } finally {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    static void assertRowsEqual(double[][] expected, BrightnessRowStream rows) {
+        assertEquals(expected.length, rows.getNumOfRows());
+        for (int row = 0; row < expected.length; row++) {
+            assertArrayEquals("row " + row, expected[row], rows.nextRow(), 0.0);
+        }
+        assertFalse(rows.hasNextRow());
+    }
+
+    /**
+     * Writes an image to a temporary png file, which keeps its pixels exactly.
+     */
+    static File writePng(Image image) throws IOException {
+        BufferedImage buffered = new BufferedImage(image.getWidth(), image.getHeight(),
+                BufferedImage.TYPE_INT_RGB);
+        for (int row = 0; row < image.getHeight(); row++) {
+            for (int col = 0; col < image.getWidth(); col++) {
+                buffered.setRGB(col, row, image.getPixelRGB(row, col));
+            }
+        }
+        File file = File.createTempFile("strips", ".png");
+        ImageIO.write(buffered, "png", file);
+        return file;
+    }
+
+    /**
+     * Collects the rows handed to a row output.
+     */
+    private static class RowCollector implements AsciiRowOutput {
+        private final List<char[]> rows = new ArrayList<>();
+        private int numOfColumns;
+
+        @Override
+        public void begin(int numOfColumns) {
+            this.numOfColumns = numOfColumns;
+        }
+
+        @Override
+        public void outRow(char[] row) {
+            rows.add(row.clone());
+        }
+
+        @Override
+        public void end() {
+        }
+    }
+}
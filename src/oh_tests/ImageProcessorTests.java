@@ -0,0 +1,108 @@
+package oh_tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+import org.junit.Test;
+import image.Image;
+import image.ImageProcessor;
+
+public class ImageProcessorTests {
+    private static final int WHITE = 0xFFFFFFFF;
+    private static final long SEED = 42;
+
+    /**
+     * Padding an image virtually gives the same brightness, to the bit, as
+     * converting a copy of it padded with white pixels.
+     */
+    @Test
+    public void virtualPaddingMatchesMaterializedPadding() {
+        int[][] sizes = {{100, 37}, {37, 100}, {65, 65}, {128, 3}, {1, 1}};
+        for (int[] size : sizes) {
+            Image image = randomImage(size[0], size[1]);
+            Image padded = padWithWhite(image, size[0], size[1]);
+            for (int resolution : resolutions(padded.getWidth(), padded.getHeight())) {
+                ImageProcessor expected = new ImageProcessor(padded, resolution);
+                ImageProcessor got = new ImageProcessor(image, resolution);
+                assertEquals(expected.getNewWidth(), got.getNewWidth());
+                assertEquals(expected.getNewHeight(), got.getNewHeight());
+                assertBrightnessEquals(expected.getBrightness(), got.getBrightness());
+            }
+        }
+    }
+
+    /**
+     * Computing the brightness on several threads gives the same result, to the
+     * bit, as computing it serially, whatever the number of threads.
+     */
+    @Test
+    public void parallelBrightnessMatchesSerial() {
+        int[][] sizes = {{640, 480}, {300, 1000}, {33, 17}};
+        int[] parallelisms = {2, 3, 8, Runtime.getRuntime().availableProcessors()};
+        for (int[] size : sizes) {
+            Image image = randomImage(size[0], size[1]);
+            for (int resolution : resolutions(nextPowerOfTwo(size[0]), nextPowerOfTwo(size[1]))) {
+                double[][] expected = new ImageProcessor(image, resolution, ImageProcessor.SERIAL)
+                        .getBrightness();
+                for (int parallelism : parallelisms) {
+                    assertBrightnessEquals(expected,
+                            new ImageProcessor(image, resolution, parallelism).getBrightness());
+                }
+            }
+        }
+    }
+
+    static Image randomImage(int width, int height) {
+        Random random = new Random(SEED + width * 31L + height);
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return new Image(pixels, width, height);
+    }
+
+    /**
+     * Lists every resolution allowed for an image of the given padded size.
+     */
+    static int[] resolutions(int paddedWidth, int paddedHeight) {
+        int first = Math.max(1, paddedWidth / paddedHeight);
+        return IntStream.iterate(first, r -> r <= paddedWidth, r -> r * 2).toArray();
+    }
+
+    static void assertBrightnessEquals(double[][] expected, double[][] got) {
+        assertEquals(expected.length, got.length);
+        for (int row = 0; row < expected.length; row++) {
+            assertArrayEquals("row " + row, expected[row], got[row], 0.0);
+        }
+    }
+
+    /**
+     * Copies an image into the middle of a white image of the next power of
+     * two dimensions, the way the padding is laid out.
+     */
+    private static Image padWithWhite(Image image, int width, int height) {
+        int newWidth = nextPowerOfTwo(width);
+        int newHeight = nextPowerOfTwo(height);
+        int left = (newWidth - width) / 2;
+        int top = (newHeight - height) / 2;
+        int[] pixels = new int[newWidth * newHeight];
+        Arrays.fill(pixels, WHITE);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                pixels[(top + row) * newWidth + left + col] = image.getPixelRGB(row, col);
+            }
+        }
+        return new Image(pixels, newWidth, newHeight);
+    }
+
+    static int nextPowerOfTwo(int n) {
+        int power = 1;
+        while (power < n) {
+            power *= 2;
+        }
+        return power;
+    }
+}
@@ -0,0 +1,160 @@
+package oh_tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import javax.imageio.ImageIO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ascii_art.KeyboardInput;
+import ascii_art.Shell;
+
+public class ShellScriptTests {
+    private static final Path OUT_HTML = Paths.get("out.html");
+    private static final String PROMPT = ">>> ";
+
+    private PrintStream stdout;
+    private byte[] outHtml;
+    private File corruptImage;
+
+    @Before
+    public void setUp() throws IOException {
+        stdout = System.out;
+        outHtml = Files.exists(OUT_HTML) ? Files.readAllBytes(OUT_HTML) : null;
+        corruptImage = writeCorruptPng();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        System.setOut(stdout);
+        if (outHtml != null) {
+            Files.write(OUT_HTML, outHtml);
+        }
+        Files.deleteIfExists(corruptImage.toPath());
+    }
+
+    /**
+     * A script whose last html conversion fails leaves the file of the previous
+     * one, and prints the same messages, as when its commands are typed.
+     */
+    @Test
+    public void scriptMatchesInteractiveWhenOverwritingConversionFails() throws IOException {
+        List<String> commands = Arrays.asList("output html", "asciiArt",
+                "image " + corruptImage.getPath(), "asciiArt");
+
+        Files.deleteIfExists(OUT_HTML);
+        String interactive = runInteractive(commands).replace(PROMPT, "");
+        byte[] interactiveHtml = Files.readAllBytes(OUT_HTML);
+
+        Files.deleteIfExists(OUT_HTML);
+        String script = runScript(commands);
+        byte[] scriptHtml = Files.readAllBytes(OUT_HTML);
+
+        assertEquals(Shell.PRINT_INCORRECT_IMAGE + "\n", interactive);
+        assertEquals(interactive, script);
+        assertArrayEquals(interactiveHtml, scriptHtml);
+    }
+
+    /**
+     * An html conversion held back without being computed, and run only once
+     * the conversion overwriting it fails, draws the image, resolution and
+     * charset it was given, and leaves those of the shell as they were.
+     */
+    @Test
+    public void scriptRunsHeldBackConversionWithItsOwnSettings() throws IOException {
+        List<String> commands = Arrays.asList("output html", "asciiArt", "res down", "asciiArt",
+                "add abc", "res down", "image " + corruptImage.getPath(), "asciiArt", "output console",
+                "asciiArt");
+
+        Files.deleteIfExists(OUT_HTML);
+        String interactive = runInteractive(commands).replace(PROMPT, "");
+        byte[] interactiveHtml = Files.readAllBytes(OUT_HTML);
+
+        Files.deleteIfExists(OUT_HTML);
+        String script = runScript(commands);
+        byte[] scriptHtml = Files.readAllBytes(OUT_HTML);
+
+        assertEquals(interactive, script);
+        assertArrayEquals(interactiveHtml, scriptHtml);
+    }
+
+    /**
+     * A script whose last html conversion succeeds writes only its frame.
+     */
+    @Test
+    public void scriptMatchesInteractiveWhenOverwritingConversionSucceeds() throws IOException {
+        List<String> commands = Arrays.asList("output html", "asciiArt", "res down", "asciiArt");
+
+        Files.deleteIfExists(OUT_HTML);
+        String interactive = runInteractive(commands).replace(PROMPT, "");
+        byte[] interactiveHtml = Files.readAllBytes(OUT_HTML);
+
+        Files.deleteIfExists(OUT_HTML);
+        String script = runScript(commands);
+        byte[] scriptHtml = Files.readAllBytes(OUT_HTML);
+
+        assertEquals(interactive, script);
+        assertArrayEquals(interactiveHtml, scriptHtml);
+    }
+
+    /**
+     * An image whose header is valid but whose pixels are not is dropped at its
+     * first conversion, and the previous image is converted again afterwards.
+     */
+    @Test
+    public void corruptImageIsReplacedByPreviousImage() throws IOException {
+        String expected = runScript(Arrays.asList("asciiArt"));
+        String got = runScript(Arrays.asList("image " + corruptImage.getPath(), "asciiArt", "asciiArt"));
+
+        assertEquals(Shell.PRINT_INCORRECT_IMAGE + "\n" + expected, got);
+    }
+
+    private static String runInteractive(List<String> commands) throws IOException {
+        String input = String.join("\n", commands) + "\nexit\n";
+        System.setIn(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+        KeyboardInput.Refresh();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Shell shell = new Shell();
+        System.setOut(new PrintStream(out, true));
+        shell.run();
+        return out.toString().replace(System.lineSeparator(), "\n");
+    }
+
+    private static String runScript(List<String> commands) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Shell shell = new Shell();
+        System.setOut(new PrintStream(out, true));
+        shell.runScript(commands);
+        return out.toString().replace(System.lineSeparator(), "\n");
+    }
+
+    /**
+     * Writes a png whose header is valid but whose compressed pixel data is not.
+     */
+    private static File writeCorruptPng() throws IOException {
+        BufferedImage image = new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        byte[] bytes = png.toByteArray();
+        int idat = new String(bytes, StandardCharsets.ISO_8859_1).indexOf("IDAT");
+        int length = ((bytes[idat - 4] & 0xFF) << 24) | ((bytes[idat - 3] & 0xFF) << 16) |
+                ((bytes[idat - 2] & 0xFF) << 8) | (bytes[idat - 1] & 0xFF);
+        Arrays.fill(bytes, idat + 4, idat + 4 + length, (byte) 0xFF);
+        File file = File.createTempFile("corrupt", ".png");
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+}
@@ -0,0 +1,235 @@
+package oh_tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import image_char_matching.CharConverter;
+import image_char_matching.CharMatcherSnapshot;
+import image_char_matching.SubImgCharMatcher;
+
+public class SubImgCharMatcherTests {
+    private static final int MIN_ASCI_VAL = 32;
+    private static final int MAX_ASCI_VAL = 127;
+    private static final int RANDOM_QUERIES = 500;
+    private static final long SEED = 42;
+    private static final int WRITER_ROUNDS = 2000;
+    private static final int READERS = 3;
+
+    /**
+     * The indexed lookup picks the same character as a linear scan over the
+     * normalized brightness values, breaking ties by the smaller character.
+     */
+    @Test
+    public void lookupMatchesLinearScan() {
+        String[] charsets = {"0123456789", allChars(), "abcdefghijklmnopqrstuvwxyz", "@ ", "#@. 034"};
+        for (String charset : charsets) {
+            SubImgCharMatcher matcher = new SubImgCharMatcher(charset.toCharArray());
+            matcher.initializeBrightnessMap();
+            assertMatchesLinearScan(charset, matcher);
+        }
+    }
+
+    /**
+     * After characters are added and removed, singly or in batches, including
+     * the ones with the minimal and maximal brightness and ones of equal
+     * brightness, lookups match a linear scan over the resulting charset.
+     */
+    @Test
+    public void lookupAfterAddAndRemoveMatchesLinearScan() {
+        SubImgCharMatcher matcher = new SubImgCharMatcher("0123456789".toCharArray());
+        StringBuilder charset = new StringBuilder("0123456789");
+        String[][] steps = {
+                // space is the brightest char, and @ among the darkest in most fonts
+                {"add", "@ "}, {"remove", "@"}, {"remove", " "},
+                {"add", "abcdefghijklmnopqrstuvwxyz"}, {"remove", "0123456789"},
+                {"add", "034"}, {"remove", "3"}, {"add", "#$%&"}, {"remove", "xyz#"},
+                {"add", allChars()}, {"remove", "abcdefghijklmnopqrstuvw"}, {"remove", "@ ~"},
+        };
+        for (String[] step : steps) {
+            boolean add = step[0].equals("add");
+            char[] chars = step[1].toCharArray();
+            if (chars.length == 1) {
+                if (add) {
+                    matcher.addChar(chars[0]);
+                } else {
+                    matcher.removeChar(chars[0]);
+                }
+            } else if (add) {
+                matcher.addChars(chars);
+            } else {
+                matcher.removeChars(chars);
+            }
+            for (char c : chars) {
+                int index = charset.indexOf(String.valueOf(c));
+                if (add && index < 0) {
+                    charset.append(c);
+                } else if (!add && index >= 0) {
+                    charset.deleteCharAt(index);
+                }
+            }
+            matcher.initializeBrightnessMap();
+            assertMatchesLinearScan(charset.toString(), matcher);
+        }
+    }
+
+    /**
+     * The quantized lookup mode is turned on for new matchers by its system
+     * property, and strict mode stays the default.
+     */
+    @Test
+    public void quantizationLevelsPropertySetsTheMode() {
+        assertEquals(SubImgCharMatcher.STRICT,
+                new SubImgCharMatcher("0123456789".toCharArray()).getQuantizationLevels());
+        System.setProperty(SubImgCharMatcher.QUANTIZATION_LEVELS_PROPERTY,
+                String.valueOf(SubImgCharMatcher.DEFAULT_QUANTIZATION_LEVELS));
+        try {
+            SubImgCharMatcher matcher = new SubImgCharMatcher("0123456789".toCharArray());
+            assertEquals(SubImgCharMatcher.DEFAULT_QUANTIZATION_LEVELS, matcher.getQuantizationLevels());
+        } finally {
+            System.clearProperty(SubImgCharMatcher.QUANTIZATION_LEVELS_PROPERTY);
+        }
+    }
+
+    /**
+     * Lookups on other threads, while one thread keeps adding and removing
+     * chars, never fail and only ever see chars of the charset, and a snapshot
+     * keeps answering the same after later changes.
+     */
+    @Test
+    public void lookupsWhileChangingTheCharset() throws InterruptedException {
+        String base = "0123456789";
+        String changing = "@ #abcxyz";
+        SubImgCharMatcher matcher = new SubImgCharMatcher(base.toCharArray());
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] readers = new Thread[READERS];
+        for (int i = 0; i < readers.length; i++) {
+            long seed = SEED + i;
+            readers[i] = new Thread(() -> {
+                Random random = new Random(seed);
+                try {
+                    while (!done.get()) {
+                        CharMatcherSnapshot snapshot = matcher.getSnapshot();
+                        double brightness = random.nextDouble();
+                        char c = snapshot.getCharByImageBrightness(brightness);
+                        assertEquals(c, snapshot.getCharByImageBrightness(brightness));
+                        assertTrue("unexpected char " + c, (base + changing).indexOf(c) >= 0);
+                        char latest = matcher.getCharByImageBrightness(brightness);
+                        assertTrue("unexpected char " + latest, (base + changing).indexOf(latest) >= 0);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            readers[i].start();
+        }
+        Random random = new Random(SEED);
+        try {
+            for (int round = 0; round < WRITER_ROUNDS && failure.get() == null; round++) {
+                char c = changing.charAt(random.nextInt(changing.length()));
+                switch (random.nextInt(4)) {
+                    case 0: matcher.addChar(c); break;
+                    case 1: matcher.removeChar(c); break;
+                    case 2: matcher.addChars(changing.substring(random.nextInt(changing.length())).toCharArray()); break;
+                    default: matcher.removeChars(changing.substring(random.nextInt(changing.length())).toCharArray());
+                }
+                if (random.nextBoolean()) {
+                    matcher.initializeBrightnessMap();
+                }
+            }
+        } finally {
+            done.set(true);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("a lookup failed while changing the charset", failure.get());
+        }
+        matcher.initializeBrightnessMap();
+        assertMatchesLinearScan(new String(matcher.getCharset()), matcher);
+    }
+
+    /**
+     * Checks every lookup of a matcher against a linear scan over its charset:
+     * at the brightness of every character, halfway between every two of them,
+     * just around those points, out of range, and at random.
+     */
+    static void assertMatchesLinearScan(String charset, SubImgCharMatcher matcher) {
+        double[] normalized = normalize(charset);
+        TreeSet<Double> points = new TreeSet<>();
+        for (double value : normalized) {
+            points.add(value);
+        }
+        List<Double> queries = new ArrayList<>(points);
+        Double previous = null;
+        for (double point : points) {
+            if (previous != null) {
+                queries.add((previous + point) / 2);
+            }
+            queries.add(Math.nextUp(point));
+            queries.add(Math.nextDown(point));
+            previous = point;
+        }
+        queries.addAll(Arrays.asList(0.0, 1.0, -0.25, 1.25));
+        Random random = new Random(SEED);
+        for (int i = 0; i < RANDOM_QUERIES; i++) {
+            queries.add(random.nextDouble());
+        }
+        for (double query : queries) {
+            assertEquals("charset \"" + charset + "\" at " + query,
+                    linearScan(charset, normalized, query), matcher.getCharByImageBrightness(query));
+        }
+    }
+
+    /**
+     * Normalizes the brightness of each character of a charset between its
+     * minimum and maximum.
+     */
+    private static double[] normalize(String charset) {
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (char c : charset.toCharArray()) {
+            min = Math.min(min, CharConverter.getBrightness(c));
+            max = Math.max(max, CharConverter.getBrightness(c));
+        }
+        double[] normalized = new double[charset.length()];
+        for (int i = 0; i < normalized.length; i++) {
+            normalized[i] = (CharConverter.getBrightness(charset.charAt(i)) - min) / (max - min);
+        }
+        return normalized;
+    }
+
+    /**
+     * Finds the closest character the way the original matcher did.
+     */
+    private static char linearScan(String charset, double[] normalized, double brightness) {
+        char closest = charset.charAt(0);
+        double minDiff = Double.MAX_VALUE;
+        for (int i = 0; i < normalized.length; i++) {
+            char c = charset.charAt(i);
+            double diff = Math.abs(normalized[i] - brightness);
+            if (diff < minDiff || (diff == minDiff && c < closest)) {
+                minDiff = diff;
+                closest = c;
+            }
+        }
+        return closest;
+    }
+
+    static String allChars() {
+        StringBuilder chars = new StringBuilder();
+        for (char c = MIN_ASCI_VAL; c < MAX_ASCI_VAL; c++) {
+            chars.append(c);
+        }
+        return chars.toString();
+    }
+}
@@ -0,0 +1,97 @@
+package image_char_matching;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * In the package of GlyphCache, which is not public.
+ */
+public class GlyphCacheTests {
+    private static final String FONT_NAME = "Test Font";
+    private static final int PIXEL_RESOLUTION = 16;
+    private static final long SEED = 42;
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("glyphs", ".bin");
+        Files.delete(file);
+        System.setProperty(GlyphCache.FILE_PROPERTY, file.toString());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        System.clearProperty(GlyphCache.FILE_PROPERTY);
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Glyphs of the same key are appended to the file, and loaded back.
+     */
+    @Test
+    public void glyphsAreAppendedAndLoaded() {
+        Glyph x = randomGlyph('x');
+        Glyph y = randomGlyph('y');
+        new GlyphCache(FONT_NAME, PIXEL_RESOLUTION, "a").putAll(Collections.singletonMap('x', x));
+        new GlyphCache(FONT_NAME, PIXEL_RESOLUTION, "a").putAll(Collections.singletonMap('y', y));
+
+        GlyphCache loaded = new GlyphCache(FONT_NAME, PIXEL_RESOLUTION, "a");
+        assertGlyphEquals(x, loaded.get('x'));
+        assertGlyphEquals(y, loaded.get('y'));
+    }
+
+    /**
+     * A file replaced by a cache of another key, after it was loaded and before
+     * new glyphs are added, is rewritten with this cache's key rather than
+     * appended to, so neither key is ever served the other's glyphs.
+     */
+    @Test
+    public void fileReplacedWithAnotherKeyIsRewrittenNotAppendedTo() {
+        Glyph x = randomGlyph('x');
+        Glyph y = randomGlyph('y');
+        Glyph z = randomGlyph('z');
+        new GlyphCache(FONT_NAME, PIXEL_RESOLUTION, "a").putAll(Collections.singletonMap('x', x));
+        // loads the file of its own key, so it would append to it
+        GlyphCache a = new GlyphCache(FONT_NAME, PIXEL_RESOLUTION, "a");
+        assertGlyphEquals(x, a.get('x'));
+
+        // another run, with another key, replaces the file in the meantime
+        new GlyphCache(FONT_NAME, PIXEL_RESOLUTION, "b").putAll(Collections.singletonMap('y', y));
+        a.putAll(Collections.singletonMap('z', z));
+
+        GlyphCache loadedB = new GlyphCache(FONT_NAME, PIXEL_RESOLUTION, "b");
+        assertNull(loadedB.get('z'));
+        GlyphCache loadedA = new GlyphCache(FONT_NAME, PIXEL_RESOLUTION, "a");
+        assertGlyphEquals(x, loadedA.get('x'));
+        assertGlyphEquals(z, loadedA.get('z'));
+        assertNull(loadedA.get('y'));
+    }
+
+    private static Glyph randomGlyph(char c) {
+        Random random = new Random(SEED + c);
+        boolean[][] bitmap = new boolean[PIXEL_RESOLUTION][PIXEL_RESOLUTION];
+        for (boolean[] row : bitmap) {
+            for (int x = 0; x < row.length; x++) {
+                row[x] = random.nextBoolean();
+            }
+        }
+        return new Glyph(bitmap);
+    }
+
+    private static void assertGlyphEquals(Glyph expected, Glyph got) {
+        assertEquals(expected.getBrightness(), got.getBrightness(), 0.0);
+        assertArrayEquals(expected.getBitmap(), got.getBitmap());
+    }
+}